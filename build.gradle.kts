@@ -17,10 +17,55 @@ repositories {
 }
 
 dependencies {
-    implementation("org.apache.commons:commons-collections4:4.3")
     intellijPlatform {
         intellijIdeaCommunity("2022.3")
     }
+    testImplementation("junit:junit:4.13.2")
+}
+
+// Generates the binary snapshot of the official test numbers bundled with the plugin, see BundledWhitelist,
+// from the CSV files downloaded from Skatteverket.se and checked in to src/whitelist. Fails without them, instead of
+// bundling an empty whitelist.
+val generateOfficialWhitelist by tasks.registering {
+    val sources = fileTree("src/whitelist") { include("*.csv") }
+    val outputDirectory = layout.buildDirectory.dir("generated/whitelist")
+    inputs.files(sources)
+    outputs.dir(outputDirectory)
+    doLast {
+        if (sources.isEmpty) {
+            throw GradleException("No official whitelist CSV files in src/whitelist, download them from Skatteverket.se")
+        }
+        val number = Regex("(?<!\\d)(?:18|19|20)\\d{10}(?!\\d)")
+        val numbers = sources.files.sorted()
+            .flatMap { file -> number.findAll(file.readText()).map { it.value.toLong() }.toList() }
+            .distinct()
+            .sorted()
+        if (numbers.isEmpty()) {
+            throw GradleException("No test numbers in the CSV files in src/whitelist")
+        }
+        val file = outputDirectory.get().file("whitelist/official-whitelist.bin").asFile
+        file.parentFile.mkdirs()
+        java.io.DataOutputStream(file.outputStream().buffered()).use { out ->
+            out.writeInt(0x53504957) // BundledWhitelist.MAGIC
+            out.writeInt(1) // BundledWhitelist.FORMAT_VERSION
+            out.writeInt(numbers.size)
+            numbers.forEach { out.writeLong(it) }
+        }
+    }
+}
+
+sourceSets {
+    main {
+        resources.srcDir(generateOfficialWhitelist)
+    }
+    // The optional Vector API digit run prefilter, compiled apart so the rest of the plugin neither needs the incubator
+    // module to build nor to run. Loaded by name by DigitRunPrefilter, only when enabled.
+    create("vector") {
+        compileClasspath += main.get().output + main.get().compileClasspath
+    }
+    test {
+        runtimeClasspath += sourceSets["vector"].output
+    }
 }
 
 // Configure Gradle IntelliJ Plugin - read more: https://github.com/JetBrains/gradle-intellij-plugin
@@ -46,6 +91,20 @@ tasks {
         targetCompatibility = "17"
     }
 
+    named<JavaCompile>("compileVectorJava") {
+        // -nowarn also silences the warning about using an incubating module
+        options.compilerArgs.addAll(listOf("--add-modules", "jdk.incubator.vector", "-nowarn"))
+    }
+
+    jar {
+        from(sourceSets["vector"].output)
+    }
+
+    test {
+        // Lets the tests compare the Vector API prefilter with the plain one
+        jvmArgs("--add-modules", "jdk.incubator.vector")
+    }
+
     signPlugin {
         certificateChain.set(System.getenv("CERTIFICATE_CHAIN"))
         privateKey.set(System.getenv("PRIVATE_KEY"))
@@ -6,18 +6,20 @@ import com.intellij.psi.PsiElement;
 import com.intellij.util.ProcessingContext;
 import com.linuxgods.kreiger.swedish.personalidentitynumbers.inspection.PersonalIdentityNumbersInspection;
 import com.linuxgods.kreiger.swedish.personalidentitynumbers.model.FileRange;
-import com.linuxgods.kreiger.swedish.personalidentitynumbers.model.PersonalIdentityNumber;
+import com.linuxgods.kreiger.swedish.personalidentitynumbers.model.WhitelistIndex;
 import org.jetbrains.annotations.NotNull;
 
 import java.util.List;
 import java.util.function.Predicate;
 import java.util.regex.Pattern;
+import java.util.stream.Stream;
 
 import static com.intellij.patterns.PlatformPatterns.psiElement;
 
 public class PersonalIdentityNumberCompletionContributor extends CompletionContributor {
 
     public static final Predicate<String> NON_DIGIT = Pattern.compile("\\D").asPredicate();
+    private static final String BUNDLED_WHITELIST = "Skatteverket.se";
 
     public PersonalIdentityNumberCompletionContributor() {
         extend(CompletionType.BASIC, psiElement(), new CompletionProvider<>() {
@@ -28,12 +30,14 @@ public class PersonalIdentityNumberCompletionContributor extends CompletionContr
                 if (prefix.length() < 4 || NON_DIGIT.test(prefix)) return;
                 PsiElement originalElement = parameters.getOriginalPosition();
                 if (originalElement == null) return;
-                PersonalIdentityNumbersInspection.getInstance(originalElement).getWhitelist()
-                        .entrySet().stream()
-                        .filter(e -> e.getKey().startsWith(prefix) || e.getKey().substring(2).startsWith(prefix))
-                        .flatMap(e -> {
-                            String personalIdentityNumber = e.getKey();
-                            List<FileRange> fileRanges = e.getValue();
+                WhitelistIndex whitelist = PersonalIdentityNumbersInspection.getInstance(originalElement).getWhitelist();
+                whitelist.startingWith(prefix)
+                        .flatMap(personalIdentityNumber -> {
+                            List<FileRange> fileRanges = whitelist.getLocations(personalIdentityNumber);
+                            if (fileRanges.isEmpty()) {
+                                return Stream.of(LookupElementBuilder.create(personalIdentityNumber)
+                                        .withTypeText(BUNDLED_WHITELIST, true));
+                            }
                             return fileRanges.stream().map(fileRange -> {
                                 LookupElementBuilder lookupElementBuilder = LookupElementBuilder.create(personalIdentityNumber)
                                         .withTypeText(fileRange.getFile().getName(), true);
@@ -7,6 +7,7 @@ import com.intellij.codeInspection.ex.ToolsImpl;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.openapi.vfs.newvfs.BulkFileListener;
+import com.intellij.openapi.vfs.newvfs.events.VFileContentChangeEvent;
 import com.intellij.openapi.vfs.newvfs.events.VFileEvent;
 import com.intellij.openapi.vfs.newvfs.events.VFileMoveEvent;
 import com.intellij.openapi.vfs.newvfs.events.VFilePropertyChangeEvent;
@@ -43,6 +44,8 @@ public class PersonalIdentityNumberWhitelistFileListener implements BulkFileList
             List<PersonalIdentityNumbersInspection> inspections = map.get(file);
             if (inspections != null) {
                 for (PersonalIdentityNumbersInspection inspection : inspections) {
+                    // The changes being saved have already been applied from the document
+                    if (event instanceof VFileContentChangeEvent && event.isFromSave() && inspection.isTrackingWhitelistDocument(file)) continue;
                     if (event instanceof VFilePropertyChangeEvent || event instanceof VFileMoveEvent) {
                         inspection.addWhitelistUrl(file.getUrl());
                     }
@@ -53,7 +56,7 @@ public class PersonalIdentityNumberWhitelistFileListener implements BulkFileList
     }
 
     @NotNull
-    private Stream<PersonalIdentityNumbersInspection> getInspections(ToolsImpl tools) {
+    static Stream<PersonalIdentityNumbersInspection> getInspections(ToolsImpl tools) {
         return tools.getTools()
                 .stream()
                 .map(ScopeToolState::getTool)
@@ -0,0 +1,23 @@
+package com.linuxgods.kreiger.swedish.personalidentitynumbers;
+
+import com.intellij.codeInspection.ex.ToolsImpl;
+import com.intellij.openapi.project.DumbAware;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.startup.StartupActivity;
+import com.linuxgods.kreiger.swedish.personalidentitynumbers.inspection.PersonalIdentityNumbersInspection;
+import org.jetbrains.annotations.NotNull;
+
+import static com.linuxgods.kreiger.swedish.personalidentitynumbers.PersonalIdentityNumberWhitelistFileListener.getInspections;
+import static com.linuxgods.kreiger.swedish.personalidentitynumbers.inspection.PersonalIdentityNumbersInspection.getCurrentProfile;
+
+/**
+ * Starts loading the whitelists when a project is opened, so the first highlighting pass does not have to wait for them.
+ */
+public class PersonalIdentityNumberWhitelistPrewarmActivity implements StartupActivity, DumbAware {
+
+    @Override public void runActivity(@NotNull Project project) {
+        ToolsImpl tools = getCurrentProfile(project).getToolsOrNull(PersonalIdentityNumbersInspection.SHORT_NAME, project);
+        if (tools == null || !tools.isEnabled()) return;
+        getInspections(tools).forEach(inspection -> inspection.prewarm(project));
+    }
+}
@@ -12,14 +12,15 @@ import com.linuxgods.kreiger.swedish.personalidentitynumbers.inspection.Personal
 import com.linuxgods.kreiger.swedish.personalidentitynumbers.model.FileRange;
 import com.linuxgods.kreiger.swedish.personalidentitynumbers.model.PersonalIdentityNumber;
 import com.linuxgods.kreiger.swedish.personalidentitynumbers.model.PersonalIdentityNumberFormats;
+import com.linuxgods.kreiger.swedish.personalidentitynumbers.model.ScanContext;
+import com.linuxgods.kreiger.swedish.personalidentitynumbers.model.WhitelistIndex;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 import java.util.Optional;
-import java.util.stream.Stream;
 
 import static com.intellij.patterns.PlatformPatterns.psiElement;
 import static java.lang.Boolean.TRUE;
@@ -35,14 +36,15 @@ public class PersonaldentityNumberReferenceContributor extends PsiReferenceContr
             public boolean accepts(@NotNull PsiElement element, ProcessingContext context) {
                 PersonalIdentityNumbersInspection inspection = PersonalIdentityNumbersInspection.getInstance(element);
                 PsiElement firstChild = element.getFirstChild();
-                PersonalIdentityNumberFormats formats = inspection.getFormats();
+                PersonalIdentityNumberFormats.Snapshot formats = inspection.getFormats().getSnapshot();
+                ScanContext scanContext = new ScanContext().setCancellationCheck(PersonalIdentityNumbersInspection.cancellationCheck());
                 if (firstChild == null) {
-                    return formats.ranges(element.getText()).findFirst().isPresent();
+                    return formats.anyMatch(PersonalIdentityNumbersInspection.getChars(element), scanContext);
                 }
                 for (PsiElement child = firstChild; child != null ; child = child.getNextSibling()) {
                     if (child.getFirstChild() != null) return false;
                     if (hasReference(child)) return false;
-                    if (formats.ranges(child.getText()).findFirst().isPresent()) {
+                    if (formats.anyMatch(PersonalIdentityNumbersInspection.getChars(child), scanContext)) {
                         return true;
                     }
                 }
@@ -55,26 +57,28 @@ public class PersonaldentityNumberReferenceContributor extends PsiReferenceContr
                 if (inspection == null) {
                     return PsiReference.EMPTY_ARRAY;
                 }
-                Map<String, List<FileRange>> whitelist = inspection.getWhitelist();
-                PersonalIdentityNumberFormats formats = inspection.getFormats();
-                return formats.ranges(element.getText())
-                        .flatMap(rangedPersonalNumber -> {
-                            String personalIdentityNumber = rangedPersonalNumber.getPersonalIdentityNumber().toString();
-                            TextRange textRange = rangedPersonalNumber.getTextRange();
-                            List<FileRange> whitelistFileRanges = whitelist.get(personalIdentityNumber);
-                            if (whitelistFileRanges == null || whitelistFileRanges.isEmpty()) {
-                                return Stream.empty();
-                            }
-                            VirtualFile containingFile = element.getContainingFile().getVirtualFile();
-                            element.putUserData(KEY, TRUE);
-                            return whitelistFileRanges.stream()
-                                    .filter(fileRange -> !fileRange.getFile().equals(containingFile) || !textRange.equals(fileRange.getTextRange()))
-                                    .flatMap(fileRange -> getPsiElement(element.getProject(), personalIdentityNumber, fileRange.getFile(), fileRange.getTextRange())
-                                            .map(target -> new WhitelistReference(element, textRange, target))
-                                            .stream())
-                                    ;
-                        })
-                        .toArray(PsiReference[]::new);
+                WhitelistIndex whitelist = inspection.getWhitelist();
+                PersonalIdentityNumberFormats.Snapshot formats = inspection.getFormats().getSnapshot();
+                List<PsiReference> references = new ArrayList<>();
+                ScanContext scanContext = new ScanContext().setCancellationCheck(PersonalIdentityNumbersInspection.cancellationCheck());
+                formats.scan(PersonalIdentityNumbersInspection.getChars(element), scanContext, rangedPersonalNumber -> {
+                    String personalIdentityNumber = rangedPersonalNumber.getPersonalIdentityNumber().toString();
+                    TextRange textRange = rangedPersonalNumber.getTextRange();
+                    List<FileRange> whitelistFileRanges = whitelist.getLocations(personalIdentityNumber);
+                    if (whitelistFileRanges.isEmpty()) {
+                        return true;
+                    }
+                    VirtualFile containingFile = element.getContainingFile().getVirtualFile();
+                    element.putUserData(KEY, TRUE);
+                    whitelistFileRanges.stream()
+                            .filter(fileRange -> !fileRange.getFile().equals(containingFile) || !textRange.equals(fileRange.getTextRange()))
+                            .flatMap(fileRange -> getPsiElement(element.getProject(), personalIdentityNumber, fileRange.getFile(), fileRange.getTextRange())
+                                    .map(target -> new WhitelistReference(element, textRange, target))
+                                    .stream())
+                            .forEach(references::add);
+                    return true;
+                });
+                return references.toArray(PsiReference[]::new);
             }
         });
     }
@@ -0,0 +1,98 @@
+package com.linuxgods.kreiger.swedish.personalidentitynumbers.inspection;
+
+import com.intellij.codeInsight.daemon.DaemonCodeAnalyzer;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.fileEditor.FileEditorManager;
+import com.intellij.openapi.fileEditor.FileEditorManagerListener;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiManager;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+
+/**
+ * Which numbers occur in which of the files highlighted in editors, so a change to the whitelists only has to highlight
+ * again the files with numbers that were added or removed.
+ */
+public class NumberOccurrences {
+    private final Project project;
+    // Guarded by this
+    private final Map<VirtualFile, Set<String>> numbersByFile = new HashMap<>();
+    // Guarded by this
+    private final Map<String, Set<VirtualFile>> filesByNumber = new HashMap<>();
+
+    public NumberOccurrences(Project project) {
+        this.project = project;
+    }
+
+    public static NumberOccurrences getInstance(Project project) {
+        return project.getService(NumberOccurrences.class);
+    }
+
+    /**
+     * Replaces the numbers found in {@code file}.
+     */
+    synchronized void setNumbers(@NotNull VirtualFile file, @NotNull Set<String> numbers) {
+        remove(file);
+        if (numbers.isEmpty()) return;
+        numbersByFile.put(file, numbers);
+        for (String number : numbers) {
+            filesByNumber.computeIfAbsent(number, n -> new HashSet<>(1)).add(file);
+        }
+    }
+
+    synchronized void remove(@NotNull VirtualFile file) {
+        Set<String> numbers = numbersByFile.remove(file);
+        if (numbers == null) return;
+        for (String number : numbers) {
+            Set<VirtualFile> files = filesByNumber.get(number);
+            files.remove(file);
+            if (files.isEmpty()) {
+                filesByNumber.remove(number);
+            }
+        }
+    }
+
+    synchronized Set<VirtualFile> getFiles(@NotNull Collection<String> numbers) {
+        Set<VirtualFile> files = new HashSet<>();
+        for (String number : numbers) {
+            files.addAll(filesByNumber.getOrDefault(number, Set.of()));
+        }
+        return files;
+    }
+
+    /**
+     * Restarts highlighting of the open files where any of {@code numbers} occur.
+     */
+    void restartHighlighting(@NotNull Collection<String> numbers) {
+        Set<VirtualFile> files = getFiles(numbers);
+        if (files.isEmpty()) return;
+        ApplicationManager.getApplication().invokeLater(() -> {
+            FileEditorManager fileEditorManager = FileEditorManager.getInstance(project);
+            PsiManager psiManager = PsiManager.getInstance(project);
+            DaemonCodeAnalyzer daemonCodeAnalyzer = DaemonCodeAnalyzer.getInstance(project);
+            for (VirtualFile file : files) {
+                PsiFile psiFile = file.isValid() && fileEditorManager.isFileOpen(file) ? psiManager.findFile(file) : null;
+                if (psiFile != null) {
+                    daemonCodeAnalyzer.restart(psiFile);
+                } else {
+                    remove(file);
+                }
+            }
+        }, project.getDisposed());
+    }
+
+    /**
+     * Forgets the numbers of files when they are closed.
+     */
+    public static class FileClosedListener implements FileEditorManagerListener {
+        @Override
+        public void fileClosed(@NotNull FileEditorManager source, @NotNull VirtualFile file) {
+            if (!source.isFileOpen(file)) {
+                getInstance(source.getProject()).remove(file);
+            }
+        }
+    }
+}
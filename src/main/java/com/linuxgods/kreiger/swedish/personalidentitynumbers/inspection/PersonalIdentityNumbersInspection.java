@@ -1,16 +1,28 @@
 package com.linuxgods.kreiger.swedish.personalidentitynumbers.inspection;
 
+import com.intellij.codeInsight.daemon.DaemonCodeAnalyzer;
 import com.intellij.codeInspection.LocalInspectionTool;
+import com.intellij.codeInspection.LocalInspectionToolSession;
 import com.intellij.codeInspection.LocalQuickFix;
+import com.intellij.codeInspection.ProblemHighlightType;
 import com.intellij.codeInspection.ProblemsHolder;
 import com.intellij.codeInspection.ex.InspectionProfileImpl;
 import com.intellij.codeInspection.ui.InspectionOptionsPanel;
 import com.intellij.ide.actions.runAnything.RunAnythingUtil;
+import com.intellij.lang.ASTNode;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.editor.Document;
 import com.intellij.openapi.editor.event.DocumentEvent;
-import com.intellij.openapi.editor.event.DocumentListener;
 import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.progress.util.ProgressIndicatorUtils;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.project.ProjectManager;
+import com.intellij.openapi.util.Key;
+import com.intellij.openapi.util.ModificationTracker;
+import com.intellij.openapi.util.SimpleModificationTracker;
 import com.intellij.openapi.util.TextRange;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.openapi.vfs.VirtualFileManager;
@@ -18,12 +30,12 @@ import com.intellij.profile.codeInspection.InspectionProfileManager;
 import com.intellij.psi.PsiElement;
 import com.intellij.psi.PsiElementVisitor;
 import com.intellij.psi.PsiPlainText;
+import com.intellij.util.concurrency.AppExecutorUtil;
 import com.linuxgods.kreiger.swedish.personalidentitynumbers.inspection.quickfix.AddToWhitelistFileQuickFix;
 import com.linuxgods.kreiger.swedish.personalidentitynumbers.inspection.quickfix.AddWhitelistFileQuickFix;
 import com.linuxgods.kreiger.swedish.personalidentitynumbers.inspection.quickfix.DownloadWhitelistQuickFix;
 import com.linuxgods.kreiger.swedish.personalidentitynumbers.inspection.quickfix.ReplaceQuickFix;
 import com.linuxgods.kreiger.swedish.personalidentitynumbers.model.*;
-import org.apache.commons.collections4.trie.PatriciaTrie;
 import org.jdom.Element;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -31,25 +43,38 @@ import org.jetbrains.annotations.Nullable;
 import javax.swing.*;
 import java.io.IOException;
 import java.io.UncheckedIOException;
+import java.time.Duration;
 import java.util.*;
-import java.util.function.Function;
-import java.util.function.UnaryOperator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Stream;
 
-import static com.intellij.codeInspection.ProblemHighlightType.INFORMATION;
+import static com.intellij.codeInspection.ProblemHighlightType.*;
 import static com.linuxgods.kreiger.swedish.personalidentitynumbers.model.PersonalIdentityNumberFormat.formatWithCentury;
 import static com.linuxgods.kreiger.swedish.personalidentitynumbers.model.Requirement.*;
 import static java.util.Comparator.*;
 import static java.util.stream.Collectors.*;
 
 public class PersonalIdentityNumbersInspection extends LocalInspectionTool {
+    private static final Logger LOG = Logger.getInstance(PersonalIdentityNumbersInspection.class);
+    private static final ExecutorService WHITELISTS_LOADER = AppExecutorUtil.createBoundedApplicationPoolExecutor(
+            "Swedish Personal Identity Numbers Whitelists Loader", 1);
+    private static final ScheduledExecutorService WHITELIST_EDITS = AppExecutorUtil.createBoundedScheduledExecutorService(
+            "Swedish Personal Identity Numbers Whitelist Edits", 1);
+    private static final int WHITELIST_EDITS_DELAY_MILLIS = 300;
+    private static final Key<ScanContext> SCAN_CONTEXT = Key.create(PersonalIdentityNumbersInspection.class.getSimpleName() + ".ScanContext");
+    private static final Key<Set<String>> NUMBERS = Key.create(PersonalIdentityNumbersInspection.class.getSimpleName() + ".Numbers");
     private final static Pattern YEAR_PATTERN = Pattern.compile("(?<!\\d)(\\d{4})(?!\\d)");
 
+    static final int DEFAULT_SCAN_BUDGET_MILLIS = 5000;
+
     public static final @NotNull String SHORT_NAME = "SwedishPersonalIdentityNumbers"; // Matches plugin.xml
-    public static final PersonalIdentityNumberFormats WHITELIST_FORMATS = new PersonalIdentityNumberFormats(
-            List.of(formatWithCentury(ALLOWED).setInvalidChecksumAllowed(true)));
+    public static final PersonalIdentityNumberFormats WHITELIST_FORMATS = whitelistFormats();
     public static final Comparator<VirtualFile> WHITELISTS_ORDER = comparing((VirtualFile file)-> file.getParent().getPath()).reversed()
                                                                        .thenComparing(VirtualFile::isWritable).reversed()
                                                                        .thenComparing((a,b) -> {
@@ -64,10 +89,40 @@ public class PersonalIdentityNumbersInspection extends LocalInspectionTool {
                                                                        });
 
     private Set<String> whitelistUrls = new LinkedHashSet<>();
-    private Set<VirtualFile> whitelistFiles = null;
-    private PatriciaTrie<List<FileRange>> whitelist = null;
+    private volatile Set<VirtualFile> whitelistFiles = null;
+    private final Object whitelistsLock = new Object();
+    // The last loaded whitelists, served while newer ones are loading
+    private volatile Whitelists whitelists = null;
+    // Guarded by whitelistsLock
+    private CompletableFuture<Whitelists> loadingWhitelists = null;
+    // Guarded by whitelistsLock, incremented when the whitelists need to be loaded again
+    private int whitelistsGeneration = 0;
+    // Guarded by whitelistsLock
+    private final Map<VirtualFile, WhitelistDocumentListener> documentListeners = new HashMap<>();
+    // Guarded by whitelistsLock, the entries of whitelist documents changed since the whitelists were published
+    private final Map<VirtualFile, WhitelistEdit> whitelistEdits = new LinkedHashMap<>();
+    // Guarded by whitelistsLock
+    private ScheduledFuture<?> applyingWhitelistEdits = null;
+    // Guarded by whitelistsLock, the projects using the whitelists, as the profile of the inspection may be shared
+    private final Set<Project> projects = new HashSet<>();
+    private final SimpleModificationTracker whitelistsModificationTracker = new SimpleModificationTracker();
+    private WhitelistIndex.Representation whitelistRepresentation = WhitelistIndex.Representation.SORTED;
+    private boolean bundledWhitelist = true;
 
     private PersonalIdentityNumberFormats formats = new PersonalIdentityNumberFormats(defaultFormats());
+    private ProblemHighlightType personalIdentityNumberHighlightType = GENERIC_ERROR_OR_WARNING;
+    private ProblemHighlightType coordinationNumberHighlightType = GENERIC_ERROR_OR_WARNING;
+    private ProblemHighlightType organisationNumberHighlightType = WEAK_WARNING;
+    private int scanBudgetMillis = DEFAULT_SCAN_BUDGET_MILLIS;
+    private int scanBudgetChars = 0;
+
+    @NotNull
+    private static PersonalIdentityNumberFormats whitelistFormats() {
+        PersonalIdentityNumberFormats formats = new PersonalIdentityNumberFormats(
+                List.of(formatWithCentury(ALLOWED).setInvalidChecksumAllowed(true)));
+        formats.setOrganisationNumber(true);
+        return formats;
+    }
 
     @NotNull
     static List<PersonalIdentityNumberFormat> defaultFormats() {
@@ -92,44 +147,425 @@ public class PersonalIdentityNumbersInspection extends LocalInspectionTool {
         VirtualFileManager virtualFileManager = VirtualFileManager.getInstance();
         whitelistUrls.removeIf(url -> null == virtualFileManager.refreshAndFindFileByUrl(url));
         whitelistFiles = null;
-        whitelist = null;
+        synchronized (whitelistsLock) {
+            whitelistsGeneration++;
+            loadingWhitelists = null;
+            discardWhitelistEdits();
+            // Whitelists in use are loaded again right away, to highlight the files affected by the change
+            if (whitelists != null) {
+                loadWhitelists();
+            }
+        }
+    }
+
+    /**
+     * Starts loading the whitelists in the background, unless they are loaded or loading already.
+     */
+    public void prewarm(@NotNull Project project) {
+        synchronized (whitelistsLock) {
+            projects.add(project);
+            Whitelists whitelists = this.whitelists;
+            if (whitelists == null || whitelists.generation != whitelistsGeneration) {
+                loadWhitelists();
+            }
+        }
+    }
+
+    /**
+     * @return the loaded whitelists, or the previously loaded whitelists while newer ones are loading, or else waits
+     * for them to load
+     */
+    private Whitelists getWhitelists() {
+        return getWhitelists(null);
+    }
+
+    /**
+     * @param project the project using the whitelists, until it is cleaned up, or {@code null}
+     */
+    private Whitelists getWhitelists(@Nullable Project project) {
+        CompletableFuture<Whitelists> loading;
+        synchronized (whitelistsLock) {
+            if (project != null) projects.add(project);
+            Whitelists whitelists = this.whitelists;
+            if (whitelists != null && whitelists.generation == whitelistsGeneration) return whitelists;
+            loading = loadWhitelists();
+            if (whitelists != null) return whitelists;
+        }
+        return ProgressIndicatorUtils.awaitWithCheckCanceled(loading);
+    }
+
+    /**
+     * Only one load at a time, which every caller waits for.
+     */
+    private CompletableFuture<Whitelists> loadWhitelists() {
+        if (loadingWhitelists == null) {
+            int generation = whitelistsGeneration;
+            CompletableFuture<Whitelists> loading = CompletableFuture.supplyAsync(() -> loadWhitelists(generation), WHITELISTS_LOADER);
+            loadingWhitelists = loading;
+            loading.whenComplete((whitelists, e) -> {
+                synchronized (whitelistsLock) {
+                    if (e != null) {
+                        LOG.warn("Failed to load whitelists", e);
+                        if (loadingWhitelists == loading) loadingWhitelists = null;
+                    } else if (whitelists.generation == whitelistsGeneration
+                            && (this.whitelists == null || this.whitelists.generation < whitelists.generation)) {
+                        setWhitelists(whitelists);
+                    } else {
+                        // Loaded before a cleanup or a change, so no one else will release it
+                        SharedWhitelists.getInstance().release(whitelists.shared);
+                    }
+                }
+            });
+        }
+        return loadingWhitelists;
+    }
+
+    /**
+     * Shares the whitelist with other inspections configured with the same whitelist files, and only loads the files
+     * if there are none.
+     */
+    private Whitelists loadWhitelists(int generation) {
+        Set<VirtualFile> whitelistFiles = getWhitelistFiles();
+        FileDocumentManager fileDocumentManager = FileDocumentManager.getInstance();
+        synchronized (whitelistsLock) {
+            documentListeners.entrySet().removeIf(entry -> {
+                if (whitelistFiles.contains(entry.getKey())) return false;
+                entry.getValue().dispose();
+                return true;
+            });
+        }
+        // Before the key is taken, so no change is missed
+        for (VirtualFile file : whitelistFiles) {
+            Document document = fileDocumentManager.getCachedDocument(file);
+            if (document != null) {
+                trackWhitelistDocument(file, document);
+            }
+        }
+        SharedWhitelists.Key key = SharedWhitelists.Key.of(whitelistFiles, whitelistRepresentation, bundledWhitelist);
+        SharedWhitelists.Whitelist shared = SharedWhitelists.getInstance().acquire(key, () -> SharedWhitelists.Whitelist.build(key,
+                new WhitelistFilesLoader(WHITELIST_FORMATS.getSnapshot()).load(whitelistFiles)));
+        return new Whitelists(generation, whitelistFiles, shared);
+    }
+
+    // Called holding whitelistsLock
+    private void setWhitelists(Whitelists whitelists) {
+        Whitelists previous = this.whitelists;
+        this.whitelists = whitelists;
+        if (previous == null) {
+            whitelistsModificationTracker.incModificationCount();
+        } else if (previous.shared != whitelists.shared || !previous.files.equals(whitelists.files)) {
+            whitelistsModificationTracker.incModificationCount();
+            restartHighlighting(previous, whitelists);
+        }
+        if (previous != null) {
+            SharedWhitelists.getInstance().release(previous.shared);
+        }
+    }
+
+    /**
+     * Highlights again only the open files with numbers that were added to or removed from the whitelists, unless the
+     * whitelist files changed, which changes the descriptions and quick fixes of all problems.
+     */
+    private static void restartHighlighting(Whitelists previous, Whitelists whitelists) {
+        Project[] projects = ProjectManager.getInstance().getOpenProjects();
+        if (!previous.files.equals(whitelists.files)) {
+            ApplicationManager.getApplication().invokeLater(() -> {
+                for (Project project : projects) {
+                    if (!project.isDisposed()) DaemonCodeAnalyzer.getInstance(project).restart();
+                }
+            });
+            return;
+        }
+        Set<String> difference = whitelists.shared.difference(previous.shared);
+        if (difference.isEmpty()) return;
+        for (Project project : projects) {
+            NumberOccurrences.getInstance(project).restartHighlighting(difference);
+        }
+    }
+
+    /**
+     * @return incremented whenever the whitelists change
+     */
+    public ModificationTracker getWhitelistsModificationTracker() {
+        return whitelistsModificationTracker;
+    }
+
+    /**
+     * Keeps the whitelists up to date with changes to the document of a whitelist file, until the file is no longer
+     * a whitelist file.
+     */
+    public void trackWhitelistDocument(VirtualFile file, Document document) {
+        synchronized (whitelistsLock) {
+            WhitelistDocumentListener listener = documentListeners.get(file);
+            if (listener != null && listener.isListeningTo(document)) return;
+            if (listener != null) {
+                listener.dispose();
+            }
+            documentListeners.put(file, new WhitelistDocumentListener(file, document, this::whitelistDocumentChanged));
+        }
+    }
+
+    public boolean isTrackingWhitelistDocument(VirtualFile file) {
+        synchronized (whitelistsLock) {
+            return documentListeners.containsKey(file);
+        }
+    }
+
+    /**
+     * Only scans the changed lines of the whitelist file, unless newer whitelists are loading, and merges the changes
+     * into the whitelists in the background once the edits pause.
+     */
+    private void whitelistDocumentChanged(VirtualFile file, DocumentEvent event) {
+        synchronized (whitelistsLock) {
+            Whitelists whitelists = this.whitelists;
+            if (whitelists == null || whitelists.generation != whitelistsGeneration
+                    || !whitelists.shared.getFilesEntries().containsKey(file)) {
+                init();
+                return;
+            }
+            WhitelistEdit edit = whitelistEdits.get(file);
+            WhitelistFileEntries entries = edit != null ? edit.entries : whitelists.shared.getFilesEntries().get(file);
+            Document document = event.getDocument();
+            whitelistEdits.put(file, new WhitelistEdit(document.getModificationStamp(),
+                    entries.update(document.getImmutableCharSequence(), event.getOffset(), event.getOldLength(), event.getNewLength(),
+                            WHITELIST_FORMATS.getSnapshot(), new ScanContext())));
+            if (applyingWhitelistEdits != null) {
+                applyingWhitelistEdits.cancel(false);
+            }
+            applyingWhitelistEdits = WHITELIST_EDITS.schedule(this::applyWhitelistEdits, WHITELIST_EDITS_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Merges the edited entries into the whitelists outside the lock. Inspections sharing the whitelist share the
+     * result, as the first one to get the changes merges them.
+     */
+    private void applyWhitelistEdits() {
+        Whitelists whitelists;
+        Map<VirtualFile, WhitelistEdit> edits;
+        synchronized (whitelistsLock) {
+            whitelists = this.whitelists;
+            if (whitelistEdits.isEmpty() || whitelists == null || whitelists.generation != whitelistsGeneration) return;
+            edits = new LinkedHashMap<>(whitelistEdits);
+        }
+        SharedWhitelists.Key editedKey = whitelists.shared.getKey();
+        Map<VirtualFile, WhitelistFileEntries> filesEntries = new LinkedHashMap<>();
+        for (Map.Entry<VirtualFile, WhitelistEdit> edit : edits.entrySet()) {
+            editedKey = editedKey.withModificationStamp(edit.getKey(), edit.getValue().modificationStamp);
+            filesEntries.put(edit.getKey(), edit.getValue().entries);
+        }
+        SharedWhitelists.Key key = editedKey;
+        SharedWhitelists.Whitelist shared = SharedWhitelists.getInstance().acquire(key, () -> whitelists.shared.with(key, filesEntries));
+        synchronized (whitelistsLock) {
+            if (this.whitelists != whitelists || whitelists.generation != whitelistsGeneration) {
+                SharedWhitelists.getInstance().release(shared);
+                return;
+            }
+            // Edits made meanwhile are applied next
+            edits.forEach(whitelistEdits::remove);
+            setWhitelists(new Whitelists(whitelists.generation, whitelists.files, shared));
+        }
+    }
+
+    // Called holding whitelistsLock
+    private void discardWhitelistEdits() {
+        whitelistEdits.clear();
+        if (applyingWhitelistEdits != null) {
+            applyingWhitelistEdits.cancel(false);
+            applyingWhitelistEdits = null;
+        }
+    }
+
+    private static class WhitelistEdit {
+        private final long modificationStamp;
+        private final WhitelistFileEntries entries;
+
+        WhitelistEdit(long modificationStamp, WhitelistFileEntries entries) {
+            this.modificationStamp = modificationStamp;
+            this.entries = entries;
+        }
+    }
+
+    /**
+     * Stops tracking whitelist documents, and lets go of the shared whitelist, until the whitelists are needed again,
+     * once no other open project uses the inspection.
+     */
+    @Override
+    public void cleanup(@NotNull Project project) {
+        synchronized (whitelistsLock) {
+            projects.remove(project);
+            projects.removeIf(Project::isDisposed);
+            if (!projects.isEmpty()) return;
+            documentListeners.values().forEach(WhitelistDocumentListener::dispose);
+            documentListeners.clear();
+            whitelistsGeneration++;
+            loadingWhitelists = null;
+            discardWhitelistEdits();
+            if (whitelists != null) {
+                SharedWhitelists.getInstance().release(whitelists.shared);
+                whitelists = null;
+            }
+        }
+    }
+
+    private static class Whitelists {
+        private final int generation;
+        private final Set<VirtualFile> files;
+        private final SharedWhitelists.Whitelist shared;
+
+        Whitelists(int generation, Set<VirtualFile> files, SharedWhitelists.Whitelist shared) {
+            this.generation = generation;
+            this.files = files;
+            this.shared = shared;
+        }
     }
 
-    private PatriciaTrie<List<FileRange>> initWhitelist(Set<VirtualFile> whitelistFiles) {
-        Map<VirtualFile, List<PersonalIdentityNumberPatternMatch>> filesPersonalNumbers = getFilesPersonalNumbers(whitelistFiles);
-        this.whitelistFiles = whitelistFiles;
-        PatriciaTrie<List<FileRange>> whitelist = initWhitelist(filesPersonalNumbers);
-        this.whitelist = whitelist;
-        return whitelist;
+    @Override
+    public @NotNull PsiElementVisitor buildVisitor(@NotNull ProblemsHolder holder, boolean isOnTheFly, @NotNull LocalInspectionToolSession session) {
+        ScanContext context = newScanContext(isOnTheFly);
+        session.putUserData(SCAN_CONTEXT, context);
+        Set<String> numbers = null;
+        if (isOnTheFly) {
+            numbers = new HashSet<>();
+            session.putUserData(NUMBERS, numbers);
+        }
+        return buildVisitor(holder, isOnTheFly, context, numbers);
     }
 
     @Override
     public @NotNull PsiElementVisitor buildVisitor(@NotNull ProblemsHolder holder, boolean isOnTheFly) {
-        Set<VirtualFile> whitelistFiles = getWhitelistFiles();
-        PatriciaTrie<List<FileRange>> whitelist = getWhitelist();
+        return buildVisitor(holder, isOnTheFly, newScanContext(isOnTheFly), null);
+    }
+
+    /**
+     * @param isOnTheFly whether to limit the scan to the budget, which only applies to highlighting in the editor, so
+     * batch inspections search all of each file
+     */
+    @NotNull private ScanContext newScanContext(boolean isOnTheFly) {
+        ScanContext context = new ScanContext().setCancellationCheck(cancellationCheck());
+        return isOnTheFly ? context.setBudget(scanBudgetChars, Duration.ofMillis(scanBudgetMillis)) : context;
+    }
+
+    /**
+     * Captures the progress indicator of the calling thread, since the threads of a parallel scan have none of their own.
+     *
+     * @return checks the progress of the calling thread for cancellation, also from the threads of a parallel scan
+     */
+    @NotNull public static Runnable cancellationCheck() {
+        ProgressIndicator indicator = ProgressManager.getGlobalProgressIndicator();
+        if (indicator != null) return indicator::checkCanceled;
+        // Without an indicator only the calling thread can be checked, which stops the other threads once cancelled
+        Thread caller = Thread.currentThread();
+        return () -> {
+            if (Thread.currentThread() == caller) {
+                ProgressManager.checkCanceled();
+            }
+        };
+    }
+
+    @Override
+    public void inspectionFinished(@NotNull LocalInspectionToolSession session, @NotNull ProblemsHolder problemsHolder) {
+        Set<String> numbers = session.getUserData(NUMBERS);
+        VirtualFile file = session.getFile().getVirtualFile();
+        if (numbers != null && file != null) {
+            NumberOccurrences.getInstance(session.getFile().getProject()).setNumbers(file, numbers);
+        }
+        ScanContext context = session.getUserData(SCAN_CONTEXT);
+        if (context == null) return;
+        if (context.isBudgetExceeded()) {
+            LOG.info(session.getFile().getName() + " exceeded the scan budget: " + context);
+            problemsHolder.registerProblem(session.getFile(), "Only the first " + context.getScannedChars()
+                    + " chars were searched for Swedish personal identity numbers, before the scan budget was spent", WEAK_WARNING);
+        } else if (LOG.isDebugEnabled()) {
+            LOG.debug(session.getFile().getName() + ": " + context);
+        }
+    }
+
+    /**
+     * @param numbers where to collect the numbers found, or {@code null}
+     */
+    private @NotNull PsiElementVisitor buildVisitor(@NotNull ProblemsHolder holder, boolean isOnTheFly, ScanContext context, @Nullable Set<String> numbers) {
+        Whitelists whitelists = getWhitelists(holder.getProject());
+        // The whole pass uses the formats as they are now, even if they are changed in the options meanwhile.
+        ProblemsSink sink = new ProblemsSink(formats.getSnapshot(), whitelists.shared.getIndex(), whitelists.shared.getOrganisationNumbers(),
+                whitelists.files, holder, isOnTheFly, numbers);
         return new PsiElementVisitor() {
             @Override
             public void visitElement(@NotNull PsiElement element) {
                 super.visitElement(element);
                 if (element.getFirstChild() != null) return;
-                formats.ranges(element.getText()).forEach(rpn -> {
-                    TextRange textRange = rpn.getTextRange();
-                    registerProblems(element, textRange, rpn, whitelist, whitelistFiles, holder, isOnTheFly);
-                });
+                sink.scan(element, getChars(element), context);
             }
 
             @Override
             public void visitPlainText(@NotNull PsiPlainText content) {
-                formats.ranges(content.getText())
-                        .forEach(
-                                pnr -> registerProblems(content, pnr.getTextRange(), pnr, whitelist,
-                                        whitelistFiles,
-                                        holder, isOnTheFly));
+                sink.scan(content, getChars(content), context);
             }
         };
     }
 
-    private void registerProblems(PsiElement element, TextRange textRange, PersonalIdentityNumberPatternMatch match, PatriciaTrie<List<FileRange>> whitelist, Set<VirtualFile> whitelistFiles, ProblemsHolder holder, boolean isOnTheFly) {
+    /**
+     * @return the text of {@code element} without copying it, when it has an AST node
+     */
+    @NotNull public static CharSequence getChars(@NotNull PsiElement element) {
+        ASTNode node = element.getNode();
+        return node != null ? node.getChars() : element.getText();
+    }
+
+    /**
+     * Registers problems for the matches in one element at a time, reused for all elements of a file.
+     */
+    private class ProblemsSink implements MatchSink {
+        private final PersonalIdentityNumberFormats.Snapshot formats;
+        private final WhitelistIndex whitelist;
+        private final Map<String, List<FileRange>> organisationNumberWhitelist;
+        private final Set<VirtualFile> whitelistFiles;
+        private final ProblemsHolder holder;
+        private final boolean isOnTheFly;
+        private final Set<String> numbers;
+        private PsiElement element;
+
+        ProblemsSink(PersonalIdentityNumberFormats.Snapshot formats, WhitelistIndex whitelist, Map<String, List<FileRange>> organisationNumberWhitelist, Set<VirtualFile> whitelistFiles, ProblemsHolder holder, boolean isOnTheFly, @Nullable Set<String> numbers) {
+            this.formats = formats;
+            this.whitelist = whitelist;
+            this.organisationNumberWhitelist = organisationNumberWhitelist;
+            this.whitelistFiles = whitelistFiles;
+            this.holder = holder;
+            this.isOnTheFly = isOnTheFly;
+            this.numbers = numbers;
+        }
+
+        void scan(PsiElement element, CharSequence chars, ScanContext context) {
+            if (context.isBudgetExceeded()) return;
+            this.element = element;
+            formats.scan(chars, context, this);
+        }
+
+        @Override
+        public boolean accept(PersonalIdentityNumberPatternMatch match) {
+            if (numbers != null) numbers.add(match.getPersonalIdentityNumber().toString());
+            registerProblems(element, match.getTextRange(), match, whitelist, whitelistFiles, holder, isOnTheFly);
+            return true;
+        }
+
+        @Override
+        public boolean acceptOrganisationNumber(OrganisationNumberMatch match) {
+            String organisationNumber = match.getOrganisationNumber();
+            if (numbers != null) numbers.add(organisationNumber);
+            if (organisationNumberWhitelist.containsKey(organisationNumber)) return true;
+            List<LocalQuickFix> quickFixes = new ArrayList<>();
+            getWritable(whitelistFiles)
+                    .map(virtualFile -> new AddToWhitelistFileQuickFix(PersonalIdentityNumbersInspection.this, virtualFile, organisationNumber))
+                    .forEach(quickFixes::add);
+            quickFixes.add(new AddWhitelistFileQuickFix());
+            String description = getDescription(match.getIdentifierType() + " '" + organisationNumber + "'", whitelistFiles);
+            holder.registerProblem(element, description, getHighlightType(match.getIdentifierType()), match.getTextRange(),
+                    quickFixes.toArray(LocalQuickFix[]::new));
+            return true;
+        }
+    }
+
+    private void registerProblems(PsiElement element, TextRange textRange, PersonalIdentityNumberPatternMatch match, WhitelistIndex whitelist, Set<VirtualFile> whitelistFiles, ProblemsHolder holder, boolean isOnTheFly) {
         PersonalIdentityNumber personalIdentityNumber = match.getPersonalIdentityNumber();
         if (isOnTheFly) {
             match.getFixes().forEach(fix -> {
@@ -138,22 +574,18 @@ public class PersonalIdentityNumbersInspection extends LocalInspectionTool {
                         fix.getQuickFixes());
             });
         }
-        List<FileRange> fileRanges = whitelist.get(personalIdentityNumber.toString());
-        if (fileRanges == null) {
+        if (!whitelist.contains(personalIdentityNumber)) {
             LocalQuickFix[] quickFixes = getQuickFixes(match, textRange.getLength(), whitelist, whitelistFiles).toArray(LocalQuickFix[]::new);
-            String description = getDescription(match, whitelistFiles);
-            holder.registerProblem(element, textRange, description, quickFixes);
+            String description = getDescription(getNumberType(match), whitelistFiles);
+            holder.registerProblem(element, description, getHighlightType(match.getIdentifierType()), textRange, quickFixes);
         }
     }
 
     @NotNull private String getNumberType(PersonalIdentityNumberPatternMatch match) {
-        return (match.isCoordinationNumber()
-                ? "coordination number"
-                : "personal identity number") + " '" + match.getPersonalIdentityNumber() + "'";
+        return match.getIdentifierType() + " '" + match.getPersonalIdentityNumber() + "'";
     }
 
-    @NotNull private String getDescription(PersonalIdentityNumberPatternMatch match, Set<VirtualFile> whitelistFiles) {
-        String numberType = getNumberType(match);
+    @NotNull private String getDescription(String numberType, Set<VirtualFile> whitelistFiles) {
         if (whitelistFiles.isEmpty()) {
             return "Swedish " + numberType + " not in whitelist, no whitelist files configured";
         }
@@ -180,12 +612,12 @@ public class PersonalIdentityNumbersInspection extends LocalInspectionTool {
     }
 
     @NotNull
-    public Stream<LocalQuickFix> getQuickFixes(PersonalIdentityNumberPatternMatch match, int length, PatriciaTrie<List<FileRange>> whitelist, Set<VirtualFile> whitelistFiles) {
+    public Stream<LocalQuickFix> getQuickFixes(PersonalIdentityNumberPatternMatch match, int length, WhitelistIndex whitelist, Set<VirtualFile> whitelistFiles) {
         PersonalIdentityNumber personalIdentityNumber = match.getPersonalIdentityNumber();
         List<LocalQuickFix> fixes = new ArrayList<>();
-        iterateSubMap(whitelist.headMap(personalIdentityNumber.toString()), SortedMap::lastKey, whitelist::previousKey, personalIdentityNumber.isCoordinationNumber())
+        whitelist.lower(personalIdentityNumber)
                 .ifPresent(lower -> fixes.add(replaceFix(length, lower.formatLike(match))));
-        iterateSubMap(whitelist.tailMap(personalIdentityNumber.toString()), SortedMap::firstKey, whitelist::nextKey, personalIdentityNumber.isCoordinationNumber())
+        whitelist.higher(personalIdentityNumber)
                 .ifPresent(higher -> fixes.add(replaceFix(length, higher.formatLike(match))));
         getWritable(whitelistFiles)
                 .map(virtualFile -> new AddToWhitelistFileQuickFix(this, virtualFile, personalIdentityNumber))
@@ -206,26 +638,6 @@ public class PersonalIdentityNumbersInspection extends LocalInspectionTool {
                 .filter(VirtualFile::isWritable);
     }
 
-    private Optional<PersonalIdentityNumber> iterateSubMap(SortedMap<String, ?> subMap, Function<SortedMap<String, ?>, String> firstFunction, UnaryOperator<String> nextFunction, boolean coordinationNumber) {
-        try {
-            return subMapStream(subMap, firstFunction, nextFunction)
-                    .map(PersonalIdentityNumber::new)
-                    .filter(number -> number.isCoordinationNumber() == coordinationNumber)
-                    .findFirst();
-        } catch (ConcurrentModificationException e) {
-            return iterateSubMap(subMap, firstFunction, nextFunction, coordinationNumber);
-        } catch (NoSuchElementException e) {
-            return Optional.empty();
-        }
-    }
-
-    @NotNull
-    private Stream<String> subMapStream(SortedMap<String, ?> subMap, Function<SortedMap<String, ?>, String> firstFunction, UnaryOperator<String> nextFunction) {
-        return Stream.of(subMap)
-                .filter(sm -> !sm.isEmpty())
-                .flatMap(sm -> Stream.iterate(firstFunction.apply(sm), Objects::nonNull, nextFunction));
-    }
-
     @NotNull private ReplaceQuickFix replaceFix(int length, String replacement) {
         return new ReplaceQuickFix(
                 "Replace with whitelisted",
@@ -246,48 +658,41 @@ public class PersonalIdentityNumbersInspection extends LocalInspectionTool {
                 .collect(toCollection(LinkedHashSet::new));
     }
 
-    private PatriciaTrie<List<FileRange>> initWhitelist(Map<VirtualFile, List<PersonalIdentityNumberPatternMatch>> whitelistPersonalNumbersByFile) {
-        return whitelistPersonalNumbersByFile.entrySet().stream().flatMap(filePnrs -> {
-            VirtualFile file = filePnrs.getKey();
-            List<PersonalIdentityNumberPatternMatch> pnrs = filePnrs.getValue();
-            return pnrs.stream()
-                    .map(pnr -> Map.entry(pnr.getPersonalIdentityNumber().toString(), new FileRange(file, pnr.getTextRange())));
-        }).collect(groupingBy(Map.Entry::getKey, PatriciaTrie::new, mapping(Map.Entry::getValue, toList())));
+    public Collection<String> getWhitelistUrls() {
+        return whitelistUrls;
     }
 
-    private Map<VirtualFile, List<PersonalIdentityNumberPatternMatch>> getFilesPersonalNumbers(Collection<VirtualFile> whitelistFiles) {
-        FileDocumentManager fileDocumentManager = FileDocumentManager.getInstance();
-        return whitelistFiles.stream().flatMap(virtualFile -> {
-            Document document = fileDocumentManager.getDocument(virtualFile);
-            if (document == null) return Stream.empty();
-            document.addDocumentListener(new DocumentListener() {
-                @Override
-                public void documentChanged(@NotNull DocumentEvent event) {
-                    document.removeDocumentListener(this);
-                    init();
-                }
-            });
-            CharSequence charsSequence = document.getCharsSequence();
-            return WHITELIST_FORMATS.ranges(charsSequence)
-                    .map(pnr -> Map.entry(virtualFile, pnr));
-        }).collect(groupingBy(Map.Entry::getKey, mapping(Map.Entry::getValue, toList())));
+    public void setWhitelistUrls(Collection<String> whitelistUrls) {
+        this.whitelistUrls = new LinkedHashSet<>(whitelistUrls);
+        init();
     }
 
+    public WhitelistIndex getWhitelist() {
+        return getWhitelists().shared.getIndex();
+    }
 
-    public Collection<String> getWhitelistUrls() {
-        return whitelistUrls;
+    public Map<String, List<FileRange>> getOrganisationNumberWhitelist() {
+        return getWhitelists().shared.getOrganisationNumbers();
     }
 
-    public void setWhitelistUrls(Collection<String> whitelistUrls) {
-        this.whitelistUrls = new LinkedHashSet<>(whitelistUrls);
+    public WhitelistIndex.Representation getWhitelistRepresentation() {
+        return whitelistRepresentation;
+    }
+
+    public void setWhitelistRepresentation(WhitelistIndex.Representation whitelistRepresentation) {
+        if (this.whitelistRepresentation == whitelistRepresentation) return;
+        this.whitelistRepresentation = whitelistRepresentation;
         init();
     }
 
-    public PatriciaTrie<List<FileRange>> getWhitelist() {
-        if (null == whitelist) {
-            whitelist = initWhitelist(getWhitelistFiles());
-        }
-        return whitelist;
+    public boolean isBundledWhitelist() {
+        return bundledWhitelist;
+    }
+
+    public void setBundledWhitelist(boolean bundledWhitelist) {
+        if (this.bundledWhitelist == bundledWhitelist) return;
+        this.bundledWhitelist = bundledWhitelist;
+        init();
     }
 
     public Set<VirtualFile> getWhitelistFiles() {
@@ -323,7 +728,6 @@ public class PersonalIdentityNumbersInspection extends LocalInspectionTool {
 
     public void setFormats(PersonalIdentityNumberFormats formats) {
         this.formats = formats;
-        formats.setFormats(formats.getFormats());
     }
 
     public boolean getCoordinationNumber() {
@@ -334,6 +738,77 @@ public class PersonalIdentityNumbersInspection extends LocalInspectionTool {
         formats.setCoordinationNumber(coordinationNumber);
     }
 
+    public boolean getOrganisationNumber() {
+        return formats.getOrganisationNumber();
+    }
+
+    public void setOrganisationNumber(boolean organisationNumber) {
+        formats.setOrganisationNumber(organisationNumber);
+    }
+
+    @NotNull
+    ProblemHighlightType getHighlightType(IdentifierType identifierType) {
+        switch (identifierType) {
+            case COORDINATION_NUMBER: return coordinationNumberHighlightType;
+            case ORGANISATION_NUMBER: return organisationNumberHighlightType;
+            default: return personalIdentityNumberHighlightType;
+        }
+    }
+
+    void setHighlightType(IdentifierType identifierType, ProblemHighlightType highlightType) {
+        switch (identifierType) {
+            case COORDINATION_NUMBER: coordinationNumberHighlightType = highlightType; break;
+            case ORGANISATION_NUMBER: organisationNumberHighlightType = highlightType; break;
+            default: personalIdentityNumberHighlightType = highlightType;
+        }
+    }
+
+    public ProblemHighlightType getPersonalIdentityNumberHighlightType() {
+        return personalIdentityNumberHighlightType;
+    }
+
+    public void setPersonalIdentityNumberHighlightType(ProblemHighlightType personalIdentityNumberHighlightType) {
+        this.personalIdentityNumberHighlightType = personalIdentityNumberHighlightType;
+    }
+
+    public ProblemHighlightType getCoordinationNumberHighlightType() {
+        return coordinationNumberHighlightType;
+    }
+
+    public void setCoordinationNumberHighlightType(ProblemHighlightType coordinationNumberHighlightType) {
+        this.coordinationNumberHighlightType = coordinationNumberHighlightType;
+    }
+
+    public ProblemHighlightType getOrganisationNumberHighlightType() {
+        return organisationNumberHighlightType;
+    }
+
+    public void setOrganisationNumberHighlightType(ProblemHighlightType organisationNumberHighlightType) {
+        this.organisationNumberHighlightType = organisationNumberHighlightType;
+    }
+
+    public int getScanBudgetMillis() {
+        return scanBudgetMillis;
+    }
+
+    /**
+     * @param scanBudgetMillis the time to spend searching each file in the editor, or 0 for no limit
+     */
+    public void setScanBudgetMillis(int scanBudgetMillis) {
+        this.scanBudgetMillis = Math.max(0, scanBudgetMillis);
+    }
+
+    public int getScanBudgetChars() {
+        return scanBudgetChars;
+    }
+
+    /**
+     * @param scanBudgetChars the number of chars to search in each file in the editor, or 0 for no limit
+     */
+    public void setScanBudgetChars(int scanBudgetChars) {
+        this.scanBudgetChars = Math.max(0, scanBudgetChars);
+    }
+
     public void addWhitelistUrl(String url) {
         whitelistUrls.add(url);
     }
@@ -1,5 +1,6 @@
 package com.linuxgods.kreiger.swedish.personalidentitynumbers.inspection;
 
+import com.intellij.codeInspection.ProblemHighlightType;
 import com.intellij.codeInspection.ui.InspectionOptionsPanel;
 import com.intellij.icons.AllIcons;
 import com.intellij.ide.DataManager;
@@ -22,33 +23,45 @@ import com.intellij.ui.awt.RelativePoint;
 import com.intellij.ui.components.*;
 import com.intellij.util.IconUtil;
 import com.linuxgods.kreiger.swedish.personalidentitynumbers.inspection.quickfix.DownloadWhitelistQuickFix;
+import com.linuxgods.kreiger.swedish.personalidentitynumbers.model.IdentifierType;
 import com.linuxgods.kreiger.swedish.personalidentitynumbers.model.PersonalIdentityNumberFormat;
 import com.linuxgods.kreiger.swedish.personalidentitynumbers.model.PersonalIdentityNumberFormats;
 import com.linuxgods.kreiger.swedish.personalidentitynumbers.model.Requirement;
+import com.linuxgods.kreiger.swedish.personalidentitynumbers.model.WhitelistIndex;
 import net.miginfocom.swing.MigLayout;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import javax.swing.*;
+import javax.swing.event.DocumentEvent;
 import javax.swing.event.ListDataEvent;
 import javax.swing.event.ListDataListener;
 import java.awt.*;
 import java.awt.datatransfer.StringSelection;
 import java.awt.event.ItemEvent;
 import java.awt.event.MouseEvent;
+import java.util.List;
 import java.util.Optional;
 import java.util.Set;
 import java.util.function.Consumer;
+import java.util.regex.Pattern;
 
+import static com.intellij.codeInspection.ProblemHighlightType.*;
 import static com.intellij.icons.AllIcons.Ide.External_link_arrow;
 import static com.linuxgods.kreiger.swedish.personalidentitynumbers.inspection.PersonalIdentityNumbersInspection.defaultFormats;
 import static com.linuxgods.kreiger.swedish.personalidentitynumbers.model.PersonalIdentityNumberFormat.formatWithCentury;
 import static com.linuxgods.kreiger.swedish.personalidentitynumbers.model.Requirement.ALLOWED;
 import static com.linuxgods.kreiger.swedish.personalidentitynumbers.model.Requirement.REJECTED;
+import static java.util.stream.Collectors.joining;
+import static java.util.stream.Collectors.toList;
 
 class PersonalIdentityNumbersInspectionOptionsPanel extends JPanel {
     public static final String SKATTEVERKET_URL = "https://skatteverket.se/omoss/apierochoppnadata/kunskapochinspiration/alltdubehovervetaomtestpersonnummer.4.5b35a6251761e6914202df9.html";
     public static final String COORDINATION_NUMBERS_URL = "https://www.skatteverket.se/servicelankar/otherlanguages/inenglish/individualsandemployees/coordinationnumbers.4.1657ce2817f5a993c3a7d2a.html";
+    private static final int MAX_RECORD_LENGTH = 100_000;
+    private static final ProblemHighlightType[] HIGHLIGHT_TYPES = {GENERIC_ERROR_OR_WARNING, ERROR, WARNING, WEAK_WARNING, INFORMATION};
+    private static final String[] HIGHLIGHT_TYPE_NAMES = {"Inspection severity", "Error", "Warning", "Weak warning", "Information"};
+    private static final Pattern COLUMN_PATTERN = Pattern.compile("\\d{1,9}");
 
     PersonalIdentityNumbersInspectionOptionsPanel(PersonalIdentityNumbersInspection inspection) {
         super(new BorderLayout());
@@ -62,16 +75,18 @@ class PersonalIdentityNumbersInspectionOptionsPanel extends JPanel {
         JPanel whitelistPanel = getWhitelistPanel(inspection);
         tabs.add("Whitelist files", whitelistPanel);
 
+        tabs.add("Highlighting", getHighlightingPanel(inspection));
+
         add(tabs);
     }
 
     @NotNull
     private JPanel getFormatsPanel(PersonalIdentityNumbersInspection inspection) {
         PersonalIdentityNumberFormats formats = inspection.getFormats();
-        CollectionListModel<PersonalIdentityNumberFormat> listModel = new CollectionListModel<>(formats.getFormats(), true);
+        CollectionListModel<PersonalIdentityNumberFormat> listModel = new CollectionListModel<>(formats.getFormats());
         AnAction resetButton = new AnAction("Reset to Default", "Reset to default", AllIcons.General.Reset) {
             @Override public void update(@NotNull AnActionEvent e) {
-                e.getPresentation().setEnabled(!defaultFormats().equals(formats.getFormats()));
+                e.getPresentation().setEnabled(!defaultFormats().equals(listModel.getItems()));
             }
 
             @Override public @NotNull ActionUpdateThread getActionUpdateThread() {
@@ -88,20 +103,21 @@ class PersonalIdentityNumbersInspectionOptionsPanel extends JPanel {
                 listModel.addAll(0, defaultFormats());
             }
         };
+        // Only the settings change here, the scanner of the formats is built when they are first used to scan.
         listModel.addListDataListener(new ListDataListener() {
             @Override
             public void intervalAdded(ListDataEvent e) {
-                inspection.setFormats(formats);
+                formats.setFormats(listModel.getItems());
             }
 
             @Override
             public void intervalRemoved(ListDataEvent e) {
-                inspection.setFormats(formats);
+                formats.setFormats(listModel.getItems());
             }
 
             @Override
             public void contentsChanged(ListDataEvent e) {
-                inspection.setFormats(formats);
+                formats.setFormats(listModel.getItems());
             }
         });
         JBList<PersonalIdentityNumberFormat> list = new JBList<>(listModel);
@@ -130,6 +146,8 @@ class PersonalIdentityNumbersInspectionOptionsPanel extends JPanel {
                 formats::setCoordinationNumber));
         checkboxPanel.add(new BrowserLink(External_link_arrow, "\"samordningsnummer\"",
                 COORDINATION_NUMBERS_URL, COORDINATION_NUMBERS_URL));
+        checkboxPanel.add(checkBox("Find organisation numbers", formats.getOrganisationNumber(),
+                formats::setOrganisationNumber));
         panel.add(checkboxPanel, BorderLayout.NORTH);
 
         return panel;
@@ -197,11 +215,67 @@ class PersonalIdentityNumbersInspectionOptionsPanel extends JPanel {
         };
         toolbarDecorator.addExtraAction(downloadButton);
         JPanel panel = new JPanel(new BorderLayout());
+        panel.add(checkBox("Whitelist official test numbers bundled with the plugin", inspection.isBundledWhitelist(),
+                inspection::setBundledWhitelist), BorderLayout.NORTH);
         panel.add(toolbarDecorator.createPanel());
         BrowserLink browserLink = new BrowserLink(External_link_arrow, "Find official CSV files at Skatteverket.se", SKATTEVERKET_URL,
                 SKATTEVERKET_URL);
         browserLink.setHorizontalAlignment(SwingConstants.RIGHT);
-        panel.add(browserLink, BorderLayout.SOUTH);
+        JPanel southPanel = new JPanel(new BorderLayout());
+        southPanel.add(representationComboBox(inspection), BorderLayout.WEST);
+        southPanel.add(browserLink, BorderLayout.EAST);
+        panel.add(southPanel, BorderLayout.SOUTH);
+        return panel;
+    }
+
+    @NotNull
+    private JPanel representationComboBox(PersonalIdentityNumbersInspection inspection) {
+        JComboBox<WhitelistIndex.Representation> cb = new ComboBox<>(WhitelistIndex.Representation.values());
+        cb.setSelectedItem(inspection.getWhitelistRepresentation());
+        cb.addItemListener(e -> {
+            if (e.getStateChange() != ItemEvent.SELECTED) return;
+            inspection.setWhitelistRepresentation((WhitelistIndex.Representation) cb.getSelectedItem());
+        });
+        JPanel panel = new JPanel(new FlowLayout(FlowLayout.LEFT, 5, 0));
+        JLabel label = new JLabel("Store whitelist as");
+        label.setLabelFor(cb);
+        panel.add(label);
+        panel.add(cb);
+        return panel;
+    }
+
+    @NotNull
+    private JPanel getHighlightingPanel(PersonalIdentityNumbersInspection inspection) {
+        JPanel panel = new JPanel(new MigLayout("ins 0"));
+        for (IdentifierType identifierType : IdentifierType.values()) {
+            JComboBox<String> cb = new ComboBox<>(HIGHLIGHT_TYPE_NAMES);
+            cb.setSelectedIndex(Math.max(0, List.of(HIGHLIGHT_TYPES).indexOf(inspection.getHighlightType(identifierType))));
+            cb.addItemListener(e -> {
+                if (e.getStateChange() != ItemEvent.SELECTED) return;
+                inspection.setHighlightType(identifierType, HIGHLIGHT_TYPES[cb.getSelectedIndex()]);
+            });
+            JLabel label = new JLabel("Swedish " + identifierType + "s not in whitelist");
+            label.setLabelFor(cb);
+            panel.add(label, "");
+            panel.add(cb, "growx, wrap");
+        }
+        panel.add(new TitledSeparator("Scan budget per file in the editor"), "gapy 10, growx, span, wrap");
+        panel.add(intSpinner("Time in milliseconds, 0 for no limit", inspection.getScanBudgetMillis(), 100,
+                inspection::setScanBudgetMillis), "span, wrap");
+        panel.add(intSpinner("Characters, 0 for no limit", inspection.getScanBudgetChars(), 1_000_000,
+                inspection::setScanBudgetChars), "span, wrap");
+        return panel;
+    }
+
+    @NotNull
+    private JPanel intSpinner(String label, int value, int stepSize, Consumer<Integer> onChange) {
+        JBIntSpinner spinner = new JBIntSpinner(value, 0, Integer.MAX_VALUE, stepSize);
+        spinner.addChangeListener(e -> onChange.accept(spinner.getNumber()));
+        JPanel panel = new JPanel(new FlowLayout(FlowLayout.LEFT, 5, 0));
+        JLabel l = new JLabel(label);
+        l.setLabelFor(spinner);
+        panel.add(l);
+        panel.add(spinner);
         return panel;
     }
 
@@ -223,6 +297,13 @@ class PersonalIdentityNumbersInspectionOptionsPanel extends JPanel {
         return cb;
     }
 
+    @NotNull
+    private static List<Integer> parseColumns(String text) {
+        return COLUMN_PATTERN.matcher(text).results()
+                .map(column -> Integer.valueOf(column.group()))
+                .collect(toList());
+    }
+
     @NotNull
     private JComboBox<String> requirementComboBox() {
         return new ComboBox<>(new String[]{"Required", "Allowed", "Rejected"});
@@ -335,6 +416,24 @@ class PersonalIdentityNumbersInspectionOptionsPanel extends JPanel {
                         });
 
                 add(surroundingDigitsCB, "span 2, growx, wrap");
+
+                JBIntSpinner recordLength = new JBIntSpinner(format.getRecordLength(), 0, MAX_RECORD_LENGTH);
+                JBTextField columns = new JBTextField(format.getColumns().stream()
+                        .map(String::valueOf)
+                        .collect(joining(", ")));
+                columns.setEnabled(format.getRecordLength() > 0);
+                recordLength.addChangeListener(e -> {
+                    columns.setEnabled(recordLength.getNumber() > 0);
+                    updateFormat(f -> f.setRecordLength(recordLength.getNumber()));
+                });
+                columns.getDocument().addDocumentListener(new DocumentAdapter() {
+                    @Override
+                    protected void textChanged(@NotNull DocumentEvent e) {
+                        updateFormat(f -> f.setColumns(parseColumns(columns.getText())));
+                    }
+                });
+                add("Fixed record length", "gapy 5, growx", recordLength);
+                add("Columns", "growx, wrap", columns);
             }
 
             private void updateFormat(Consumer<PersonalIdentityNumberFormat> formatConsumer) {
@@ -0,0 +1,18 @@
+package com.linuxgods.kreiger.swedish.personalidentitynumbers.inspection;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+
+/**
+ * The parent of the disposables of the plugin, disposed when the plugin is unloaded or the application exits.
+ */
+public class PluginDisposable implements Disposable {
+
+    public static PluginDisposable getInstance() {
+        return ApplicationManager.getApplication().getService(PluginDisposable.class);
+    }
+
+    @Override
+    public void dispose() {
+    }
+}
@@ -0,0 +1,220 @@
+package com.linuxgods.kreiger.swedish.personalidentitynumbers.inspection;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.util.TextRange;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.linuxgods.kreiger.swedish.personalidentitynumbers.model.BundledWhitelist;
+import com.linuxgods.kreiger.swedish.personalidentitynumbers.model.FileRange;
+import com.linuxgods.kreiger.swedish.personalidentitynumbers.model.WhitelistFileEntries;
+import com.linuxgods.kreiger.swedish.personalidentitynumbers.model.WhitelistIndex;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+import java.util.function.Supplier;
+
+/**
+ * Shares the immutable whitelists between the inspections of all profiles, scopes and projects that are configured
+ * with the same whitelist files, so identical configurations only keep one index in memory.
+ * <p>
+ * Each {@link #acquire} must be followed by a {@link #release} when the whitelist is no longer used, and a whitelist is
+ * forgotten when its last user releases it.
+ */
+public class SharedWhitelists {
+    // Guarded by this
+    private final Map<Key, Whitelist> whitelists = new HashMap<>();
+
+    public static SharedWhitelists getInstance() {
+        return ApplicationManager.getApplication().getService(SharedWhitelists.class);
+    }
+
+    /**
+     * Loads the whitelist outside the lock, so a slow load never blocks another user. If two users load the same
+     * whitelist at once, the first one to finish is shared.
+     *
+     * @return the shared whitelist of {@code key}, or else the whitelist loaded by {@code load}
+     */
+    @NotNull
+    Whitelist acquire(@NotNull Key key, @NotNull Supplier<Whitelist> load) {
+        synchronized (this) {
+            Whitelist whitelist = whitelists.get(key);
+            if (whitelist != null) {
+                whitelist.references++;
+                return whitelist;
+            }
+        }
+        Whitelist loaded = load.get();
+        synchronized (this) {
+            Whitelist whitelist = whitelists.computeIfAbsent(key, k -> loaded);
+            whitelist.references++;
+            return whitelist;
+        }
+    }
+
+    synchronized void release(@NotNull Whitelist whitelist) {
+        if (--whitelist.references == 0) {
+            whitelists.remove(whitelist.key, whitelist);
+        }
+    }
+
+    /**
+     * Identifies a whitelist by how its index is built, and the URL and modification stamp of each whitelist file,
+     * taken from the document if it has one, so unsaved changes are part of the key.
+     */
+    static final class Key {
+        private final List<String> urls;
+        private final List<Long> modificationStamps;
+        private final WhitelistIndex.Representation representation;
+        private final boolean bundledWhitelist;
+
+        private Key(List<String> urls, List<Long> modificationStamps, WhitelistIndex.Representation representation, boolean bundledWhitelist) {
+            this.urls = urls;
+            this.modificationStamps = modificationStamps;
+            this.representation = representation;
+            this.bundledWhitelist = bundledWhitelist;
+        }
+
+        static Key of(Collection<VirtualFile> files, WhitelistIndex.Representation representation, boolean bundledWhitelist) {
+            FileDocumentManager fileDocumentManager = FileDocumentManager.getInstance();
+            List<String> urls = new ArrayList<>(files.size());
+            List<Long> modificationStamps = new ArrayList<>(files.size());
+            for (VirtualFile file : files) {
+                urls.add(file.getUrl());
+                Document document = fileDocumentManager.getCachedDocument(file);
+                modificationStamps.add(document != null ? document.getModificationStamp() : file.getModificationStamp());
+            }
+            return new Key(urls, modificationStamps, representation, bundledWhitelist);
+        }
+
+        Key withModificationStamp(VirtualFile file, long modificationStamp) {
+            List<Long> modificationStamps = new ArrayList<>(this.modificationStamps);
+            modificationStamps.set(urls.indexOf(file.getUrl()), modificationStamp);
+            return new Key(urls, modificationStamps, representation, bundledWhitelist);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return bundledWhitelist == key.bundledWhitelist && urls.equals(key.urls)
+                    && modificationStamps.equals(key.modificationStamps) && representation == key.representation;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(urls, modificationStamps, representation, bundledWhitelist);
+        }
+    }
+
+    /**
+     * The whitelist index and organisation numbers of whitelist files, and the entries of each file they were built from.
+     */
+    static final class Whitelist {
+        private final Key key;
+        private final Map<VirtualFile, WhitelistFileEntries> filesEntries;
+        private final WhitelistIndex index;
+        private final Map<String, List<FileRange>> organisationNumbers;
+        // Guarded by SharedWhitelists.this
+        private int references;
+
+        private Whitelist(Key key, Map<VirtualFile, WhitelistFileEntries> filesEntries, WhitelistIndex index,
+                          Map<String, List<FileRange>> organisationNumbers) {
+            this.key = key;
+            this.filesEntries = filesEntries;
+            this.index = index;
+            this.organisationNumbers = organisationNumbers;
+        }
+
+        static Whitelist build(Key key, Map<VirtualFile, WhitelistFileEntries> filesEntries) {
+            WhitelistIndex.Builder builder = WhitelistIndex.builder().setRepresentation(key.representation);
+            if (key.bundledWhitelist) {
+                builder.addAll(BundledWhitelist.getNumbers());
+            }
+            filesEntries.forEach(builder::add);
+            Map<String, List<FileRange>> organisationNumbers = new HashMap<>();
+            filesEntries.forEach((file, entries) -> addOrganisationNumbers(organisationNumbers, file, entries));
+            return new Whitelist(key, filesEntries, builder.build(), organisationNumbers);
+        }
+
+        /**
+         * Only merges the changed files into the index and organisation numbers, instead of building them again from
+         * the entries of every file.
+         *
+         * @return a whitelist of the same entries, except the new entries of the changed files
+         */
+        Whitelist with(Key key, Map<VirtualFile, WhitelistFileEntries> changedFilesEntries) {
+            Map<VirtualFile, WhitelistFileEntries> filesEntries = new LinkedHashMap<>(this.filesEntries);
+            WhitelistIndex index = this.index;
+            Map<String, List<FileRange>> organisationNumbers = new HashMap<>(this.organisationNumbers);
+            changedFilesEntries.forEach((file, entries) -> {
+                WhitelistFileEntries previous = filesEntries.put(file, entries);
+                if (previous != null) {
+                    removeOrganisationNumbers(organisationNumbers, file, previous);
+                }
+                addOrganisationNumbers(organisationNumbers, file, entries);
+            });
+            for (Map.Entry<VirtualFile, WhitelistFileEntries> changed : changedFilesEntries.entrySet()) {
+                index = index.with(changed.getKey(), changed.getValue());
+            }
+            return new Whitelist(key, filesEntries, index, organisationNumbers);
+        }
+
+        /**
+         * Replaces the lists it changes, as they may be shared with other whitelists.
+         */
+        private static void addOrganisationNumbers(Map<String, List<FileRange>> organisationNumbers, VirtualFile file,
+                                                   WhitelistFileEntries entries) {
+            for (int i = 0; i < entries.getOrganisationNumberCount(); i++) {
+                FileRange range = new FileRange(file, TextRange.from(entries.getOrganisationNumberStart(i), entries.getOrganisationNumberLength(i)));
+                organisationNumbers.merge(entries.getOrganisationNumber(i), List.of(range), (ranges, added) -> {
+                    List<FileRange> merged = new ArrayList<>(ranges);
+                    merged.addAll(added);
+                    return merged;
+                });
+            }
+        }
+
+        private static void removeOrganisationNumbers(Map<String, List<FileRange>> organisationNumbers, VirtualFile file,
+                                                      WhitelistFileEntries entries) {
+            for (int i = 0; i < entries.getOrganisationNumberCount(); i++) {
+                organisationNumbers.computeIfPresent(entries.getOrganisationNumber(i), (number, ranges) -> {
+                    List<FileRange> kept = new ArrayList<>(ranges);
+                    kept.removeIf(range -> range.getFile().equals(file));
+                    return kept.isEmpty() ? null : kept;
+                });
+            }
+        }
+
+        /**
+         * @return the personal identity numbers and organisation numbers that were added or removed since the
+         * {@code other} whitelist
+         */
+        Set<String> difference(Whitelist other) {
+            Set<String> difference = new HashSet<>();
+            for (long number : index.difference(other.index)) {
+                difference.add(WhitelistIndex.decode(number));
+            }
+            organisationNumbers.keySet().stream().filter(n -> !other.organisationNumbers.containsKey(n)).forEach(difference::add);
+            other.organisationNumbers.keySet().stream().filter(n -> !organisationNumbers.containsKey(n)).forEach(difference::add);
+            return difference;
+        }
+
+        Key getKey() {
+            return key;
+        }
+
+        Map<VirtualFile, WhitelistFileEntries> getFilesEntries() {
+            return filesEntries;
+        }
+
+        WhitelistIndex getIndex() {
+            return index;
+        }
+
+        Map<String, List<FileRange>> getOrganisationNumbers() {
+            return organisationNumbers;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.linuxgods.kreiger.swedish.personalidentitynumbers.inspection;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.editor.event.DocumentEvent;
+import com.intellij.openapi.editor.event.DocumentListener;
+import com.intellij.openapi.util.Disposer;
+import com.intellij.openapi.vfs.VirtualFile;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.function.BiConsumer;
+
+/**
+ * Listens to the document of a whitelist file until disposed.
+ */
+class WhitelistDocumentListener implements DocumentListener {
+    private final VirtualFile file;
+    private final Document document;
+    private final BiConsumer<VirtualFile, DocumentEvent> onChange;
+    private final Disposable disposable;
+
+    WhitelistDocumentListener(VirtualFile file, Document document, BiConsumer<VirtualFile, DocumentEvent> onChange) {
+        this.file = file;
+        this.document = document;
+        this.onChange = onChange;
+        this.disposable = Disposer.newDisposable(PluginDisposable.getInstance(), "Whitelist document " + file.getUrl());
+        document.addDocumentListener(this, disposable);
+    }
+
+    boolean isListeningTo(Document document) {
+        return this.document == document;
+    }
+
+    @Override
+    public void documentChanged(@NotNull DocumentEvent event) {
+        onChange.accept(file, event);
+    }
+
+    void dispose() {
+        Disposer.dispose(disposable);
+    }
+}
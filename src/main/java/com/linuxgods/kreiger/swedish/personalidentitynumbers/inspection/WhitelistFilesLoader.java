@@ -0,0 +1,138 @@
+package com.linuxgods.kreiger.swedish.personalidentitynumbers.inspection;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.progress.util.ProgressIndicatorUtils;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import com.linuxgods.kreiger.swedish.personalidentitynumbers.model.PersonalIdentityNumberFormats;
+import com.linuxgods.kreiger.swedish.personalidentitynumbers.model.ScanContext;
+import com.linuxgods.kreiger.swedish.personalidentitynumbers.model.WhitelistFileEntries;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.stream.Collectors.joining;
+
+/**
+ * Loads the {@link WhitelistFileEntries} of whitelist files concurrently on a bounded executor, from the
+ * {@link WhitelistIndexCache} if a file is unchanged since it was cached, and otherwise by streaming the file.
+ * Only documents with unsaved changes are scanned instead, so whitelist files the user has not opened never
+ * become documents.
+ * <p>
+ * Documents are only accessed on the calling thread, and without waiting for a read lock, which could deadlock with a
+ * pending write action while a highlighting pass holding a read lock waits for the load.
+ */
+class WhitelistFilesLoader {
+    private static final Logger LOG = Logger.getInstance(WhitelistFilesLoader.class);
+    private static final ExecutorService EXECUTOR = AppExecutorUtil.createBoundedApplicationPoolExecutor(
+            "Swedish Personal Identity Numbers Whitelist Loader", Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    private final PersonalIdentityNumberFormats.Snapshot formats;
+    // The same for all files of a load, since it is part of how the cached entries were read
+    private final int currentYear = new ScanContext().getCurrentYear();
+
+    WhitelistFilesLoader(PersonalIdentityNumberFormats.Snapshot formats) {
+        this.formats = formats;
+    }
+
+    /**
+     * @return the entries of each file that could be read, in the order of {@code files}
+     */
+    Map<VirtualFile, WhitelistFileEntries> load(Collection<VirtualFile> files) {
+        long start = System.nanoTime();
+        FileDocumentManager fileDocumentManager = FileDocumentManager.getInstance();
+        WhitelistIndexCache cache = WhitelistIndexCache.getInstance();
+        List<FileLoad> loads = new ArrayList<>();
+        for (VirtualFile file : files) {
+            FileLoad load = new FileLoad(file);
+            Document document = fileDocumentManager.getCachedDocument(file);
+            if (document != null && fileDocumentManager.isDocumentUnsaved(document)) {
+                CharSequence chars = document.getImmutableCharSequence();
+                load.future = EXECUTOR.submit(() -> load.timed(() -> scan(chars)));
+            } else {
+                load.future = EXECUTOR.submit(() -> load.timed(() -> {
+                    byte[] hash = cache.hash(file);
+                    if (hash == null) return null;
+                    WhitelistFileEntries entries = cache.read(file, hash, formats, currentYear);
+                    if (entries != null) {
+                        load.cached = true;
+                        return entries;
+                    }
+                    entries = scan(file);
+                    if (entries != null) {
+                        cache.write(file, hash, formats, currentYear, entries);
+                    }
+                    return entries;
+                }));
+            }
+            loads.add(load);
+        }
+        Map<VirtualFile, WhitelistFileEntries> filesEntries = new LinkedHashMap<>();
+        for (FileLoad load : loads) {
+            load.entries = ProgressIndicatorUtils.awaitWithCheckCanceled(load.future);
+            if (load.entries != null) {
+                filesEntries.put(load.file, load.entries);
+            }
+        }
+        LOG.info("Loaded " + filesEntries.size() + " whitelist files in " + NANOSECONDS.toMillis(System.nanoTime() - start) + " ms: "
+                + loads.stream().map(FileLoad::toString).collect(joining(", ")));
+        return filesEntries;
+    }
+
+    /**
+     * Streams the file instead of loading it into a {@link Document}, which would be kept in memory.
+     */
+    @Nullable
+    private WhitelistFileEntries scan(VirtualFile file) {
+        try (InputStream in = file.getInputStream()) {
+            byte[] bom = file.getBOM();
+            if (bom != null) {
+                in.skipNBytes(bom.length);
+            }
+            return WhitelistFileEntries.scan(new InputStreamReader(in, file.getCharset()), formats, new ScanContext(currentYear));
+        } catch (IOException e) {
+            LOG.warn("Failed to read whitelist file " + file.getUrl(), e);
+            return null;
+        }
+    }
+
+    private WhitelistFileEntries scan(CharSequence chars) {
+        return WhitelistFileEntries.scan(chars, formats, new ScanContext(currentYear));
+    }
+
+    private static class FileLoad {
+        private final VirtualFile file;
+        private Future<WhitelistFileEntries> future;
+        private WhitelistFileEntries entries;
+        private boolean cached;
+        private long nanos;
+
+        FileLoad(VirtualFile file) {
+            this.file = file;
+        }
+
+        WhitelistFileEntries timed(Supplier<WhitelistFileEntries> load) {
+            long start = System.nanoTime();
+            try {
+                return load.get();
+            } finally {
+                nanos += System.nanoTime() - start;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return file.getName() + " " + (entries == null ? "failed" : entries.size() + " numbers " + (cached ? "cached" : "scanned"))
+                    + " in " + NANOSECONDS.toMillis(nanos) + " ms";
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package com.linuxgods.kreiger.swedish.personalidentitynumbers.inspection;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.linuxgods.kreiger.swedish.personalidentitynumbers.model.PersonalIdentityNumberFormats;
+import com.linuxgods.kreiger.swedish.personalidentitynumbers.model.WhitelistFileEntries;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HexFormat;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * Caches the numbers found in each whitelist file in the IDE system directory, so they are read from the cache file
+ * instead of scanned again, as long as the length and the SHA-256 hash of the file contents are unchanged, and the file
+ * would be scanned the same way.
+ * <p>
+ * Cache files are read into memory in one go rather than memory mapped, since a mapped file can not be replaced on
+ * Windows until the mapping is garbage collected.
+ * <p>
+ * A cache file is a header of magic, format version, URL, length and hash of the whitelist file, the current year the
+ * numbers without century were read with, and the hash of the whitelist formats, followed by the
+ * {@linkplain WhitelistFileEntries#write entries}.
+ */
+public class WhitelistIndexCache {
+    private static final Logger LOG = Logger.getInstance(WhitelistIndexCache.class);
+    private static final int MAGIC = 0x5350494E; // SPIN
+    // Increment when the format of the cache files or of the entries change
+    private static final int FORMAT_VERSION = 3;
+    private static final String HASH_ALGORITHM = "SHA-256";
+
+    private final Path directory;
+
+    public WhitelistIndexCache() {
+        this(PathManager.getSystemDir().resolve("swedish-personal-identity-numbers").resolve("whitelist-index"));
+    }
+
+    WhitelistIndexCache(Path directory) {
+        this.directory = directory;
+    }
+
+    public static WhitelistIndexCache getInstance() {
+        return ApplicationManager.getApplication().getService(WhitelistIndexCache.class);
+    }
+
+    /**
+     * @return the hash of the contents of {@code file}, read in a streaming fashion, to look it up in the cache with
+     * {@link #read} and {@link #write} it, or {@code null} if it could not be read
+     */
+    @Nullable
+    public byte[] hash(@NotNull VirtualFile file) {
+        try (InputStream in = file.getInputStream()) {
+            MessageDigest digest = messageDigest();
+            byte[] buffer = new byte[1 << 16];
+            for (int read; (read = in.read(buffer)) >= 0; ) {
+                digest.update(buffer, 0, read);
+            }
+            return digest.digest();
+        } catch (IOException e) {
+            LOG.warn("Failed to read whitelist file " + file.getUrl(), e);
+            return null;
+        }
+    }
+
+    /**
+     * @param hash the {@linkplain #hash(VirtualFile) hash} of {@code file}
+     * @param currentYear the current year the numbers without century are read with
+     * @return the cached entries of {@code file}, or {@code null} if it is not cached, has changed since it was cached,
+     * or was cached with other formats or another year
+     */
+    @Nullable
+    public WhitelistFileEntries read(@NotNull VirtualFile file, byte[] hash, PersonalIdentityNumberFormats.Snapshot formats, int currentYear) {
+        return read(file.getUrl(), file.getLength(), hash, hash(formats), currentYear);
+    }
+
+    public void write(@NotNull VirtualFile file, byte[] hash, PersonalIdentityNumberFormats.Snapshot formats, int currentYear,
+                      @NotNull WhitelistFileEntries entries) {
+        write(file.getUrl(), file.getLength(), hash, hash(formats), currentYear, entries);
+    }
+
+    Path cacheFile(String url) {
+        return directory.resolve(HexFormat.of().formatHex(hash(url.getBytes(StandardCharsets.UTF_8))));
+    }
+
+    /**
+     * Hashes the descriptions of the formats rather than their hash codes, which are not stable between runs.
+     */
+    private static byte[] hash(PersonalIdentityNumberFormats.Snapshot formats) {
+        String settings = formats.getFormats() + ", coordination numbers " + formats.getCoordinationNumber()
+                + ", organisation numbers " + formats.getOrganisationNumber();
+        return hash(settings.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Nullable
+    WhitelistFileEntries read(String url, long length, byte[] hash, byte[] formatsHash, int currentYear) {
+        Path cacheFile = cacheFile(url);
+        if (!Files.isRegularFile(cacheFile)) return null;
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(cacheFile));
+            if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) return null;
+            byte[] cachedUrl = new byte[buffer.getInt()];
+            buffer.get(cachedUrl);
+            if (!url.equals(new String(cachedUrl, StandardCharsets.UTF_8))) return null;
+            if (buffer.getLong() != length) return null;
+            byte[] cachedHash = new byte[hash.length];
+            buffer.get(cachedHash);
+            if (!Arrays.equals(hash, cachedHash)) return null;
+            if (buffer.getInt() != currentYear) return null;
+            byte[] cachedFormatsHash = new byte[formatsHash.length];
+            buffer.get(cachedFormatsHash);
+            if (!Arrays.equals(formatsHash, cachedFormatsHash)) return null;
+            return WhitelistFileEntries.read(buffer);
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Failed to read cached whitelist index " + cacheFile, e);
+            return null;
+        }
+    }
+
+    void write(String url, long length, byte[] hash, byte[] formatsHash, int currentYear, WhitelistFileEntries entries) {
+        Path cacheFile = cacheFile(url);
+        try {
+            Files.createDirectories(directory);
+            Path temporaryFile = Files.createTempFile(directory, cacheFile.getFileName().toString(), ".tmp");
+            try {
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporaryFile)))) {
+                    out.writeInt(MAGIC);
+                    out.writeInt(FORMAT_VERSION);
+                    byte[] urlBytes = url.getBytes(StandardCharsets.UTF_8);
+                    out.writeInt(urlBytes.length);
+                    out.write(urlBytes);
+                    out.writeLong(length);
+                    out.write(hash);
+                    out.writeInt(currentYear);
+                    out.write(formatsHash);
+                    entries.write(out);
+                }
+                Files.move(temporaryFile, cacheFile, ATOMIC_MOVE, REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(temporaryFile);
+            }
+        } catch (IOException e) {
+            LOG.warn("Failed to cache whitelist index " + cacheFile, e);
+        }
+    }
+
+    private static byte[] hash(byte[] bytes) {
+        return messageDigest().digest(bytes);
+    }
+
+    private static MessageDigest messageDigest() {
+        try {
+            return MessageDigest.getInstance(HASH_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
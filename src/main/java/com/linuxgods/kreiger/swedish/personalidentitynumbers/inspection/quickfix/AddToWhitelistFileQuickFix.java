@@ -12,23 +12,33 @@ import com.intellij.openapi.vfs.VirtualFile;
 import com.linuxgods.kreiger.swedish.personalidentitynumbers.inspection.PersonalIdentityNumbersInspection;
 import com.linuxgods.kreiger.swedish.personalidentitynumbers.model.PersonalIdentityNumber;
 import com.linuxgods.kreiger.swedish.personalidentitynumbers.model.PersonalIdentityNumberPatternMatch;
+import com.linuxgods.kreiger.swedish.personalidentitynumbers.model.ScanContext;
 import org.jetbrains.annotations.NotNull;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
 
 import static com.linuxgods.kreiger.swedish.personalidentitynumbers.inspection.PersonalIdentityNumbersInspection.WHITELIST_FORMATS;
-import static one.util.streamex.MoreCollectors.tail;
 
 public class AddToWhitelistFileQuickFix implements LocalQuickFix {
 
     private final PersonalIdentityNumbersInspection inspection;
     private final VirtualFile virtualFile;
-    private final PersonalIdentityNumber personalIdentityNumber;
+    private final String number;
 
     public AddToWhitelistFileQuickFix(PersonalIdentityNumbersInspection inspection, VirtualFile virtualFile, PersonalIdentityNumber personalIdentityNumber) {
+        this(inspection, virtualFile, personalIdentityNumber.toString());
+    }
+
+    /**
+     * @param number any identifier, such as an organisation number
+     */
+    public AddToWhitelistFileQuickFix(PersonalIdentityNumbersInspection inspection, VirtualFile virtualFile, String number) {
         this.inspection = inspection;
         this.virtualFile = virtualFile;
-        this.personalIdentityNumber = personalIdentityNumber;
+        this.number = number;
     }
 
     @Override
@@ -38,7 +48,7 @@ public class AddToWhitelistFileQuickFix implements LocalQuickFix {
 
     @Override
     public @IntentionName @NotNull String getName() {
-        return "Add '" + personalIdentityNumber + "' to whitelist file '" + virtualFile.getPresentableName() + "'";
+        return "Add '" + number + "' to whitelist file '" + virtualFile.getPresentableName() + "'";
     }
 
     @Override
@@ -47,29 +57,33 @@ public class AddToWhitelistFileQuickFix implements LocalQuickFix {
             FileDocumentManager fileDocumentManager = FileDocumentManager.getInstance();
             Document document = fileDocumentManager.getDocument(virtualFile);
             if (document == null) return;
+            // Applies the insertion to the whitelists, and highlights the files with the number again
+            inspection.trackWhitelistDocument(virtualFile, document);
             CharSequence charsSequence = document.getCharsSequence();
-            List<PersonalIdentityNumberPatternMatch> tail = WHITELIST_FORMATS.ranges(charsSequence)
-                    .collect(tail(3));
+            Deque<PersonalIdentityNumberPatternMatch> last = new ArrayDeque<>(3);
+            WHITELIST_FORMATS.scan(charsSequence, new ScanContext(), match -> {
+                if (last.size() == 3) last.removeFirst();
+                return last.add(match);
+            });
+            List<PersonalIdentityNumberPatternMatch> tail = new ArrayList<>(last);
             if (tail.size() == 3) {
                 String betwixt = charsSequence.subSequence(tail.get(0).getTextRange().getEndOffset(),
                         tail.get(1).getTextRange().getStartOffset()).toString();
                 if (betwixt.equals(charsSequence.subSequence(tail.get(1).getTextRange().getEndOffset(),
                         tail.get(2).getTextRange().getStartOffset()).toString())) {
-                    String toAppend = betwixt + personalIdentityNumber;
+                    String toAppend = betwixt + number;
                     document.insertString(tail.get(2).getTextRange().getEndOffset(), toAppend);
-                    inspection.init();
                     return;
                 }
             }
             int length = charsSequence.length();
             String toAppend;
             if (length > 0 && charsSequence.charAt(length - 1) != '\n') {
-                toAppend = "\n" + personalIdentityNumber;
+                toAppend = "\n" + number;
             } else {
-                toAppend = personalIdentityNumber + "\n";
+                toAppend = number + "\n";
             }
             document.insertString(length, toAppend);
-            inspection.init();
         }, "", null);
     }
 }
@@ -0,0 +1,144 @@
+package com.linuxgods.kreiger.swedish.personalidentitynumbers.model;
+
+/**
+ * Numbers as bits, one for each birth date from 1840 until this year and birth number from 000 to 999. The checksum
+ * digit follows from the other digits, so it needs no bit.
+ * <p>
+ * Bits are in the same order as the numbers, so the index of a number is the rank of its bit.
+ */
+abstract class BitmapNumberSet implements NumberSet {
+    private static final int FIRST_YEAR = 1840;
+    private static final int MONTHS = 12;
+    private static final int DAYS = 31;
+    private static final int BIRTH_NUMBERS = 1000;
+    // Coordination numbers have 60 added to the day of month
+    private static final int COORDINATION_DAY_OFFSET = 60;
+
+    private final int dayOffset;
+    private final int lastYear;
+    final int bits;
+
+    BitmapNumberSet(boolean coordinationNumbers, int lastYear) {
+        this.dayOffset = coordinationNumbers ? COORDINATION_DAY_OFFSET : 0;
+        this.lastYear = lastYear;
+        this.bits = (lastYear - FIRST_YEAR + 1) * MONTHS * DAYS * BIRTH_NUMBERS;
+    }
+
+    /**
+     * @return whether all {@code numbers} have a bit, and a correct checksum
+     */
+    static boolean fits(long[] numbers, boolean coordinationNumbers, int lastYear) {
+        int dayOffset = coordinationNumbers ? COORDINATION_DAY_OFFSET : 0;
+        for (long number : numbers) {
+            if (toBit(number, dayOffset, lastYear) < 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return whether {@code bit} is set
+     */
+    abstract boolean contains(int bit);
+
+    /**
+     * @return the number of set bits before {@code bit}
+     */
+    abstract int rank(int bit);
+
+    /**
+     * @return the set bit with {@code rank} set bits before it
+     */
+    abstract int select(int rank);
+
+    @Override
+    public int indexOf(long number) {
+        int bit = toBit(number);
+        if (bit < 0) return binarySearch(number);
+        int rank = rank(bit);
+        return contains(bit) ? rank : -rank - 1;
+    }
+
+    /**
+     * For numbers without a bit, such as with an incorrect checksum.
+     */
+    private int binarySearch(long number) {
+        int low = 0;
+        int high = size() - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            long value = get(middle);
+            if (value < number) {
+                low = middle + 1;
+            } else if (value > number) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -low - 1;
+    }
+
+    @Override
+    public long get(int index) {
+        return toNumber(select(index));
+    }
+
+    int toBit(long number) {
+        return toBit(number, dayOffset, lastYear);
+    }
+
+    /**
+     * @return the bit of {@code number}, or -1 if it has none
+     */
+    private static int toBit(long number, int dayOffset, int lastYear) {
+        long withoutChecksum = number / 10;
+        int birthNumber = (int) (withoutChecksum % BIRTH_NUMBERS);
+        long date = withoutChecksum / BIRTH_NUMBERS;
+        int day = (int) (date % 100) - dayOffset;
+        int month = (int) (date / 100 % 100);
+        long year = date / 10_000;
+        if (year < FIRST_YEAR || year > lastYear || month < 1 || month > MONTHS || day < 1 || day > DAYS
+                || checksum(withoutChecksum) != number % 10) {
+            return -1;
+        }
+        return ((((int) year - FIRST_YEAR) * MONTHS + month - 1) * DAYS + day - 1) * BIRTH_NUMBERS + birthNumber;
+    }
+
+    private long toNumber(int bit) {
+        int birthNumber = bit % BIRTH_NUMBERS;
+        int dates = bit / BIRTH_NUMBERS;
+        int day = dates % DAYS + 1 + dayOffset;
+        int months = dates / DAYS;
+        int month = months % MONTHS + 1;
+        int year = months / MONTHS + FIRST_YEAR;
+        long withoutChecksum = ((year * 100L + month) * 100 + day) * BIRTH_NUMBERS + birthNumber;
+        return withoutChecksum * 10 + checksum(withoutChecksum);
+    }
+
+    /**
+     * Luhn checksum of YYMMDDXXX, the last nine of the eleven digits.
+     */
+    private static int checksum(long withoutChecksum) {
+        int sum = 0;
+        boolean doubled = true;
+        for (int i = 0; i < 9; i++, withoutChecksum /= 10, doubled = !doubled) {
+            int digit = (int) (withoutChecksum % 10);
+            if (doubled) {
+                digit *= 2;
+                if (digit > 9) digit -= 9;
+            }
+            sum += digit;
+        }
+        return (10 - sum % 10) % 10;
+    }
+
+    /**
+     * @return the set bit of {@code word} with {@code rank} set bits before it
+     */
+    static int selectInWord(long word, int rank) {
+        for (int i = 0; i < rank; i++) {
+            word &= word - 1;
+        }
+        return Long.numberOfTrailingZeros(word);
+    }
+}
@@ -0,0 +1,57 @@
+package com.linuxgods.kreiger.swedish.personalidentitynumbers.model;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The official test numbers from Skatteverket.se, bundled with the plugin as a binary snapshot generated at build time
+ * by the {@code generateOfficialWhitelist} task: magic, format version, count, and the sorted numbers as {@code long}s of
+ * their twelve digits.
+ * <p>
+ * Loaded on first use. Empty if the resource is missing, e.g. when run without the generated resources.
+ */
+public class BundledWhitelist {
+    static final String RESOURCE = "/whitelist/official-whitelist.bin";
+    // Must match the generateOfficialWhitelist task in build.gradle.kts
+    static final int MAGIC = 0x53504957; // SPIW
+    static final int FORMAT_VERSION = 1;
+
+    private BundledWhitelist() {
+    }
+
+    /**
+     * @return the sorted numbers, as {@linkplain WhitelistIndex#encode encoded} by the whitelist index
+     */
+    public static long[] getNumbers() {
+        return Holder.NUMBERS.clone();
+    }
+
+    static long[] read(ByteBuffer buffer) {
+        if (buffer.getInt() != MAGIC) {
+            throw new IllegalStateException("Not a bundled whitelist");
+        }
+        int version = buffer.getInt();
+        if (version != FORMAT_VERSION) {
+            throw new IllegalStateException("Unsupported bundled whitelist format version " + version);
+        }
+        long[] numbers = new long[buffer.getInt()];
+        buffer.asLongBuffer().get(numbers);
+        return numbers;
+    }
+
+    private static class Holder {
+        private static final long[] NUMBERS = load();
+
+        private static long[] load() {
+            try (InputStream in = BundledWhitelist.class.getResourceAsStream(RESOURCE)) {
+                if (in == null) return new long[0];
+                // Resources in the plugin jar can not be memory mapped, but are read in one go
+                return read(ByteBuffer.wrap(in.readAllBytes()));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.linuxgods.kreiger.swedish.personalidentitynumbers.model;
+
+/**
+ * A batch of candidates found by the scanner, as offsets in primitive arrays, and the results of validating them
+ * with {@link ValidationKernel#validate(CharSequence, Candidates)}.
+ * <p>
+ * Reused between batches, so scanning allocates nothing for candidates that are rejected.
+ */
+class Candidates {
+    static final int CAPACITY = 64;
+    static final int ORGANISATION_NUMBER = -1;
+
+    // The index of the format, or ORGANISATION_NUMBER
+    final int[] formatIndexes = new int[CAPACITY];
+    final int[] starts = new int[CAPACITY];
+    // The month of a personal identity number, or the ten digits of an organisation number
+    final int[] months = new int[CAPACITY];
+    final int[] separators = new int[CAPACITY];
+    final int[] suffixes = new int[CAPACITY];
+    final int[] ends = new int[CAPACITY];
+
+    final int[] years = new int[CAPACITY];
+    final byte[] checksums = new byte[CAPACITY];
+    final byte[] flags = new byte[CAPACITY];
+    int size;
+
+    /**
+     * @return whether the batch is full
+     */
+    boolean add(int formatIndex, int start, int month, int separator, int suffix, int end) {
+        formatIndexes[size] = formatIndex;
+        starts[size] = start;
+        months[size] = month;
+        separators[size] = separator;
+        suffixes[size] = suffix;
+        ends[size] = end;
+        return ++size == CAPACITY;
+    }
+
+    boolean addOrganisationNumber(int start, int number, int suffix, int end) {
+        return add(ORGANISATION_NUMBER, start, number, suffix, suffix, end);
+    }
+
+    boolean isOrganisationNumber(int i) {
+        return formatIndexes[i] == ORGANISATION_NUMBER;
+    }
+
+    boolean is(int i, int flag) {
+        return (flags[i] & flag) != 0;
+    }
+
+    void clear() {
+        size = 0;
+    }
+}
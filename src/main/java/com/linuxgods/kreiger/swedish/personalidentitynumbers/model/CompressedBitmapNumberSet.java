@@ -0,0 +1,112 @@
+package com.linuxgods.kreiger.swedish.personalidentitynumbers.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A bitmap in containers of 65536 bits, like a Roaring bitmap, for sparse custom whitelists. Containers without set
+ * bits are left out, containers with few set bits are sorted arrays of their low 16 bits, and the others are bitmaps.
+ */
+class CompressedBitmapNumberSet extends BitmapNumberSet {
+    private static final int CONTAINER_BITS = 1 << 16;
+    // An array of more chars would take more space than a bitmap
+    private static final int MAX_ARRAY_SIZE = CONTAINER_BITS / Character.SIZE;
+
+    // The high 16 bits of the bits in each container
+    private final char[] keys;
+    // The low 16 bits in each array container, or null for a bitmap container
+    private final char[][] arrays;
+    private final long[][] bitmaps;
+    // The number of set bits before each container, and in all containers
+    private final int[] ranks;
+
+    CompressedBitmapNumberSet(long[] numbers, boolean coordinationNumbers, int lastYear) {
+        super(coordinationNumbers, lastYear);
+        List<int[]> containers = new ArrayList<>();
+        int[] bitsOfNumbers = Arrays.stream(numbers).mapToInt(this::toBit).toArray();
+        for (int from = 0; from < bitsOfNumbers.length; ) {
+            int key = bitsOfNumbers[from] >>> 16;
+            int to = from;
+            while (to < bitsOfNumbers.length && bitsOfNumbers[to] >>> 16 == key) to++;
+            containers.add(Arrays.copyOfRange(bitsOfNumbers, from, to));
+            from = to;
+        }
+        this.keys = new char[containers.size()];
+        this.arrays = new char[containers.size()][];
+        this.bitmaps = new long[containers.size()][];
+        this.ranks = new int[containers.size() + 1];
+        for (int c = 0; c < containers.size(); c++) {
+            int[] container = containers.get(c);
+            keys[c] = (char) (container[0] >>> 16);
+            if (container.length <= MAX_ARRAY_SIZE) {
+                arrays[c] = new char[container.length];
+                for (int i = 0; i < container.length; i++) {
+                    arrays[c][i] = (char) container[i];
+                }
+            } else {
+                bitmaps[c] = new long[CONTAINER_BITS / Long.SIZE];
+                for (int bit : container) {
+                    bitmaps[c][(bit & 0xFFFF) >>> 6] |= 1L << bit;
+                }
+            }
+            ranks[c + 1] = ranks[c] + container.length;
+        }
+    }
+
+    @Override
+    public int size() {
+        return ranks[ranks.length - 1];
+    }
+
+    @Override
+    boolean contains(int bit) {
+        int c = Arrays.binarySearch(keys, (char) (bit >>> 16));
+        if (c < 0) return false;
+        char low = (char) bit;
+        return arrays[c] != null
+                ? Arrays.binarySearch(arrays[c], low) >= 0
+                : (bitmaps[c][low >>> 6] & 1L << low) != 0;
+    }
+
+    @Override
+    int rank(int bit) {
+        int c = Arrays.binarySearch(keys, (char) (bit >>> 16));
+        if (c < 0) return ranks[-c - 1];
+        char low = (char) bit;
+        if (arrays[c] != null) {
+            int i = Arrays.binarySearch(arrays[c], low);
+            return ranks[c] + (i >= 0 ? i : -i - 1);
+        }
+        long[] bitmap = bitmaps[c];
+        int rank = ranks[c];
+        for (int w = 0; w < low >>> 6; w++) {
+            rank += Long.bitCount(bitmap[w]);
+        }
+        return rank + Long.bitCount(bitmap[low >>> 6] & (1L << low) - 1);
+    }
+
+    @Override
+    int select(int rank) {
+        // The last container with at most rank set bits before it
+        int low = 0;
+        int high = keys.length - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (ranks[middle] <= rank) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        int remaining = rank - ranks[low];
+        int base = keys[low] << 16;
+        if (arrays[low] != null) return base | arrays[low][remaining];
+        long[] bitmap = bitmaps[low];
+        for (int w = 0; ; w++) {
+            int count = Long.bitCount(bitmap[w]);
+            if (remaining < count) return base | w * Long.SIZE + selectInWord(bitmap[w], remaining);
+            remaining -= count;
+        }
+    }
+}
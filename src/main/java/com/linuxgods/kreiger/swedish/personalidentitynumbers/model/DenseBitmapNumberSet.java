@@ -0,0 +1,73 @@
+package com.linuxgods.kreiger.swedish.personalidentitynumbers.model;
+
+/**
+ * One bit for every possible number, about 9 MB for each kind of number no matter how many are whitelisted.
+ * Membership is one bit test.
+ */
+class DenseBitmapNumberSet extends BitmapNumberSet {
+    // Words per block of the rank directory
+    private static final int BLOCK_WORDS = 8;
+
+    private final long[] words;
+    // The number of set bits before each block, and in all blocks
+    private final int[] blockRanks;
+
+    DenseBitmapNumberSet(long[] numbers, boolean coordinationNumbers, int lastYear) {
+        super(coordinationNumbers, lastYear);
+        this.words = new long[(bits + Long.SIZE - 1) / Long.SIZE];
+        for (long number : numbers) {
+            int bit = toBit(number);
+            words[bit >>> 6] |= 1L << bit;
+        }
+        int blocks = (words.length + BLOCK_WORDS - 1) / BLOCK_WORDS;
+        this.blockRanks = new int[blocks + 1];
+        for (int block = 0; block < blocks; block++) {
+            int rank = blockRanks[block];
+            for (int w = block * BLOCK_WORDS; w < Math.min(words.length, (block + 1) * BLOCK_WORDS); w++) {
+                rank += Long.bitCount(words[w]);
+            }
+            blockRanks[block + 1] = rank;
+        }
+    }
+
+    @Override
+    public int size() {
+        return blockRanks[blockRanks.length - 1];
+    }
+
+    @Override
+    boolean contains(int bit) {
+        return (words[bit >>> 6] & 1L << bit) != 0;
+    }
+
+    @Override
+    int rank(int bit) {
+        int word = bit >>> 6;
+        int rank = blockRanks[word / BLOCK_WORDS];
+        for (int w = word - word % BLOCK_WORDS; w < word; w++) {
+            rank += Long.bitCount(words[w]);
+        }
+        return rank + Long.bitCount(words[word] & (1L << bit) - 1);
+    }
+
+    @Override
+    int select(int rank) {
+        // The last block with at most rank set bits before it
+        int low = 0;
+        int high = blockRanks.length - 2;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (blockRanks[middle] <= rank) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        int remaining = rank - blockRanks[low];
+        for (int w = low * BLOCK_WORDS; ; w++) {
+            int count = Long.bitCount(words[w]);
+            if (remaining < count) return w * Long.SIZE + selectInWord(words[w], remaining);
+            remaining -= count;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.linuxgods.kreiger.swedish.personalidentitynumbers.model;
+
+import com.intellij.openapi.diagnostic.Logger;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Skips text that has no run of digits long enough to contain the date of a personal identity number.
+ */
+class DigitRunPrefilter {
+    private static final Logger LOG = Logger.getInstance(DigitRunPrefilter.class);
+
+    /**
+     * Enables the Vector API implementation. Also requires the JVM option {@code --add-modules=jdk.incubator.vector}.
+     */
+    static final String VECTOR_PROPERTY = "swedish.personal.identity.numbers.vector.prefilter";
+    private static final String VECTOR_MODULE = "jdk.incubator.vector";
+    private static final String VECTOR_CLASS = DigitRunPrefilter.class.getPackageName() + ".VectorDigitRunPrefilter";
+
+    private static final DigitRunPrefilter INSTANCE = create();
+
+    static DigitRunPrefilter getInstance() {
+        return INSTANCE;
+    }
+
+    private static DigitRunPrefilter create() {
+        if (!Boolean.getBoolean(VECTOR_PROPERTY)) {
+            return new DigitRunPrefilter();
+        }
+        DigitRunPrefilter vector = createVector();
+        return vector != null ? vector : new DigitRunPrefilter();
+    }
+
+    /**
+     * The Vector API implementation is compiled apart from the rest of the plugin, see the {@code vector} source set,
+     * and only loaded by name, so nothing else needs the incubator module.
+     *
+     * @return the Vector API implementation, or {@code null} if the incubator module is not available
+     */
+    @Nullable
+    static DigitRunPrefilter createVector() {
+        if (ModuleLayer.boot().findModule(VECTOR_MODULE).isEmpty()) {
+            LOG.warn(VECTOR_PROPERTY + " is set, but the JVM was not started with --add-modules=" + VECTOR_MODULE);
+            return null;
+        }
+        try {
+            return (DigitRunPrefilter) Class.forName(VECTOR_CLASS).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            LOG.warn("Failed to use the Vector API for the digit run prefilter", e);
+            return null;
+        }
+    }
+
+    /**
+     * @param runStart the start of the run of digits that is open at {@code from}, or {@code from}
+     * @return the start of the first run of at least {@code minRun} digits that is complete before {@code to}, or else
+     * {@code ~runStart} of the run still open at {@code to}, like {@link java.util.Arrays#binarySearch(int[], int)}.
+     */
+    int nextRun(CharSequence chars, int from, int to, int runStart, int minRun) {
+        for (int i = from; i < to; i++) {
+            if (!PersonalIdentityNumberScanner.isDigit(chars.charAt(i))) {
+                runStart = i + 1;
+            } else if (i + 1 - runStart >= minRun) {
+                return runStart;
+            }
+        }
+        return ~runStart;
+    }
+}
@@ -0,0 +1,24 @@
+package com.linuxgods.kreiger.swedish.personalidentitynumbers.model;
+
+/**
+ * The kinds of Swedish identifiers found in one pass by {@link PersonalIdentityNumberFormats#scan(CharSequence, ScanContext, MatchSink)}.
+ */
+public enum IdentifierType {
+    PERSONAL_IDENTITY_NUMBER("personal identity number"),
+    COORDINATION_NUMBER("coordination number"),
+    ORGANISATION_NUMBER("organisation number");
+
+    private final String description;
+
+    IdentifierType(String description) {
+        this.description = description;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    @Override public String toString() {
+        return description;
+    }
+}
@@ -0,0 +1,21 @@
+package com.linuxgods.kreiger.swedish.personalidentitynumbers.model;
+
+/**
+ * Receives the matches of {@link PersonalIdentityNumberFormats#scan(CharSequence, ScanContext, MatchSink)} in offset order.
+ */
+@FunctionalInterface
+public interface MatchSink {
+    /**
+     * @return {@code false} to stop scanning
+     */
+    boolean accept(PersonalIdentityNumberPatternMatch match);
+
+    /**
+     * Only called when the formats {@linkplain PersonalIdentityNumberFormats#getOrganisationNumber() find organisation numbers}.
+     *
+     * @return {@code false} to stop scanning
+     */
+    default boolean acceptOrganisationNumber(OrganisationNumberMatch match) {
+        return true;
+    }
+}
@@ -0,0 +1,40 @@
+package com.linuxgods.kreiger.swedish.personalidentitynumbers.model;
+
+import java.time.Year;
+
+/**
+ * Sorted distinct whitelisted numbers of one kind, each a {@code long} of its twelve digits.
+ */
+interface NumberSet {
+
+    /**
+     * @param numbers sorted distinct numbers
+     * @return the numbers in the {@code representation}, or in a sorted array if they do not fit it
+     */
+    static NumberSet of(long[] numbers, WhitelistIndex.Representation representation, boolean coordinationNumbers) {
+        if (numbers.length == 0) return new SortedNumberSet(numbers);
+        int lastYear = Year.now(PersonalIdentityNumber.CLOCK).getValue();
+        switch (representation) {
+            case BITMAP:
+                if (BitmapNumberSet.fits(numbers, coordinationNumbers, lastYear)) {
+                    return new DenseBitmapNumberSet(numbers, coordinationNumbers, lastYear);
+                }
+                break;
+            case COMPRESSED_BITMAP:
+                if (BitmapNumberSet.fits(numbers, coordinationNumbers, lastYear)) {
+                    return new CompressedBitmapNumberSet(numbers, coordinationNumbers, lastYear);
+                }
+                break;
+        }
+        return new SortedNumberSet(numbers);
+    }
+
+    int size();
+
+    /**
+     * @return the index of {@code number}, or {@code -(insertion point) - 1} like {@link java.util.Arrays#binarySearch(long[], long)}
+     */
+    int indexOf(long number);
+
+    long get(int index);
+}
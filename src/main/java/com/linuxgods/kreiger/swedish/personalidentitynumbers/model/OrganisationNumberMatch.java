@@ -0,0 +1,57 @@
+package com.linuxgods.kreiger.swedish.personalidentitynumbers.model;
+
+import com.intellij.openapi.util.TextRange;
+
+/**
+ * A Swedish organisation number, "organisationsnummer", with an optional "16" prefix and separator,
+ * e.g. 556677-8899 or 165566778899.
+ * <p>
+ * The third digit is at least 2, so it can not be the month of a personal identity number.
+ */
+public class OrganisationNumberMatch {
+    private final CharSequence chars;
+    private final int start;
+    private final int number;
+    private final int suffix;
+    private final int end;
+
+    OrganisationNumberMatch(CharSequence chars, int start, int number, int suffix, int end) {
+        this.chars = chars;
+        this.start = start;
+        this.number = number;
+        this.suffix = suffix;
+        this.end = end;
+    }
+
+    public IdentifierType getIdentifierType() {
+        return IdentifierType.ORGANISATION_NUMBER;
+    }
+
+    public String getOriginal() {
+        return chars.subSequence(start, end).toString();
+    }
+
+    /**
+     * @return the ten digits with a separator, e.g. 556677-8899
+     */
+    public String getOrganisationNumber() {
+        return chars.subSequence(number, number + 6) + "-" + chars.subSequence(suffix, end);
+    }
+
+    public int getStartOffset() {
+        return start;
+    }
+
+    public int getEndOffset() {
+        return end;
+    }
+
+    public TextRange getTextRange() {
+        return new TextRange(start, end);
+    }
+
+    @Override
+    public String toString() {
+        return getOrganisationNumber();
+    }
+}
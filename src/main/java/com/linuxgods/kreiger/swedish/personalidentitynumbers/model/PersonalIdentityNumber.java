@@ -4,7 +4,6 @@ import com.intellij.codeInspection.LocalQuickFix;
 import org.jetbrains.annotations.NotNull;
 
 import java.time.Clock;
-import java.time.Year;
 
 public class PersonalIdentityNumber implements Comparable<PersonalIdentityNumber> {
     static final Clock CLOCK = Clock.systemUTC();
@@ -47,18 +46,18 @@ public class PersonalIdentityNumber implements Comparable<PersonalIdentityNumber
     }
 
     public String formatLike(PersonalIdentityNumberPatternMatch match) {
-        String yearString = personalNumber.substring(8 - match.getDate().length(), 8);
+        String yearString = personalNumber.substring(8 - match.getDateLength(), 8);
         String separator = "";
         if (match.hasSeparator()) {
-            separator = getCorrectSeparator();
+            separator = getCorrectSeparator(match.getScanContext().getCurrentYear());
         }
         String suffix = match.hasChecksum() ? personalNumber.substring(8) : personalNumber.substring(8, 11);
         return yearString + separator + suffix;
     }
 
-    @NotNull String getCorrectSeparator() {
+    @NotNull String getCorrectSeparator(int currentYear) {
         int year = Integer.parseInt(personalNumber.substring(0, 4));
-        return Year.now(CLOCK).getValue() - year >= 100 ? "+" : "-";
+        return currentYear - year >= 100 ? "+" : "-";
     }
 
     public interface Fix {
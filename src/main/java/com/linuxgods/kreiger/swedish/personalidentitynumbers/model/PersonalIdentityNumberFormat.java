@@ -7,6 +7,8 @@ import java.util.List;
 import java.util.function.Predicate;
 
 import static com.linuxgods.kreiger.swedish.personalidentitynumbers.model.Requirement.*;
+import static java.util.stream.Collectors.joining;
+import static java.util.stream.Collectors.toUnmodifiableList;
 
 public class PersonalIdentityNumberFormat implements Cloneable {
     private static final String YEAR_IN_CENTURY = "[0-9]{2}";
@@ -28,6 +30,9 @@ public class PersonalIdentityNumberFormat implements Cloneable {
 
     private boolean invalidChecksumAllowed = false;
     private boolean surroundingDigitsAllowed = false;
+    // Fixed width records, e.g. from old COBOL systems
+    private int recordLength = 0;
+    private List<Integer> columns = List.of();
 
     public static PersonalIdentityNumberFormat formatWithCentury(Requirement century) {
         return new PersonalIdentityNumberFormat().setCentury(century);
@@ -100,6 +105,37 @@ public class PersonalIdentityNumberFormat implements Cloneable {
         return this;
     }
 
+    public int getRecordLength() {
+        return recordLength;
+    }
+
+    /**
+     * @param recordLength the length of each record, not counting line breaks between records, or 0 for free text
+     */
+    public PersonalIdentityNumberFormat setRecordLength(int recordLength) {
+        this.recordLength = Math.max(0, recordLength);
+        return this;
+    }
+
+    public List<Integer> getColumns() {
+        return columns;
+    }
+
+    /**
+     * @param columns the offsets within each record where a number starts
+     */
+    public PersonalIdentityNumberFormat setColumns(List<Integer> columns) {
+        this.columns = columns.stream().filter(column -> column >= 0).distinct().sorted().collect(toUnmodifiableList());
+        return this;
+    }
+
+    /**
+     * Columnar formats only match at their columns of fixed width records, instead of anywhere in free text.
+     */
+    public boolean isColumnar() {
+        return recordLength > 0 && !columns.isEmpty();
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -109,6 +145,8 @@ public class PersonalIdentityNumberFormat implements Cloneable {
 
         if (invalidChecksumAllowed != that.invalidChecksumAllowed) return false;
         if (surroundingDigitsAllowed != that.surroundingDigitsAllowed) return false;
+        if (recordLength != that.recordLength) return false;
+        if (!columns.equals(that.columns)) return false;
         if (millennium != that.millennium) return false;
         if (century != that.century) return false;
         if (separator != that.separator) return false;
@@ -123,6 +161,8 @@ public class PersonalIdentityNumberFormat implements Cloneable {
         result = 31 * result + checksumDigit.hashCode();
         result = 31 * result + (invalidChecksumAllowed ? 1 : 0);
         result = 31 * result + (surroundingDigitsAllowed ? 1 : 0);
+        result = 31 * result + recordLength;
+        result = 31 * result + columns.hashCode();
         return result;
     }
 
@@ -142,6 +182,11 @@ public class PersonalIdentityNumberFormat implements Cloneable {
         if (surroundingDigitsAllowed) {
             suffix.add("surrounding digits allowed");
         }
+        if (isColumnar()) {
+            suffix.add((columns.size() == 1 ? "column " : "columns ")
+                    + columns.stream().map(String::valueOf).collect(joining(", "))
+                    + " of " + recordLength + " char records");
+        }
         return String.join(", ", suffix);
     }
 
@@ -181,6 +226,6 @@ public class PersonalIdentityNumberFormat implements Cloneable {
     public Predicate<PersonalIdentityNumberPatternMatch> getPredicate() {
         return invalidChecksumAllowed
                 ? match -> true
-                : match -> match.getChecksumDigit().isEmpty() || match.getChecksumDigit().equals("" + match.getCorrectChecksum());
+                : PersonalIdentityNumberPatternMatch::hasCorrectChecksum;
     }
 }
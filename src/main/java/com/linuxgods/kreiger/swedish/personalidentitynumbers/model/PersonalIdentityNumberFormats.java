@@ -1,78 +1,193 @@
 package com.linuxgods.kreiger.swedish.personalidentitynumbers.model;
 
-import com.intellij.openapi.util.TextRange;
-
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Predicate;
 import java.util.regex.Pattern;
 import java.util.stream.Stream;
 
 import static java.util.stream.Collectors.joining;
+import static java.util.stream.Collectors.toUnmodifiableList;
 
 public class PersonalIdentityNumberFormats {
-    private List<PersonalIdentityNumberFormat> formats;
-    private Pattern pattern;
-
-    private boolean coordinationNumber = true;
+    private final AtomicReference<Snapshot> snapshot = new AtomicReference<>(new Snapshot(List.of(), true, false));
 
     public PersonalIdentityNumberFormats() {
 
     }
 
     public PersonalIdentityNumberFormats(List<PersonalIdentityNumberFormat> formats) {
-        setFormats(new ArrayList<>(formats));
+        setFormats(formats);
+    }
+
+    /**
+     * @return the formats and coordination number setting as they are now, unaffected by later changes
+     */
+    public Snapshot getSnapshot() {
+        return snapshot.get();
     }
 
     public Stream<PersonalIdentityNumberPatternMatch> ranges(CharSequence chars) {
+        return getSnapshot().ranges(chars, new ScanContext());
+    }
+
+    public Stream<PersonalIdentityNumberPatternMatch> ranges(CharSequence chars, ScanContext context) {
+        return getSnapshot().ranges(chars, context);
+    }
+
+    /**
+     * Pushes the matches in {@code chars} to {@code sink}, until it returns {@code false}.
+     */
+    public void scan(CharSequence chars, ScanContext context, MatchSink sink) {
+        getSnapshot().scan(chars, context, sink);
+    }
 
-        return pattern.matcher(chars)
-                .results()
-                .filter(match -> {
-                    int length = match.group().length();
-                    char first = chars.charAt(0);
-                    char last = chars.charAt(chars.length() - 1);
-                    switch (chars.length() - length) {
-                        case 1:
-                            return match.start() == 1 && !Character.isLetterOrDigit(first)
-                                    || !Character.isLetterOrDigit(last);
-                        case 2:
-                            return match.start() == 1 && matchingDelimiters(first, last);
-                        default:
-                            return true;
-                    }
-                })
-                .map(PersonalIdentityNumberPatternMatch::new)
-                .filter(match -> formats.get(match.getMatchedPatternIndex()).getPredicate().test(match))
-                .filter(getPredicate());
-    }
-
-    private static boolean matchingDelimiters(char first, char last) {
-        return !Character.isLetterOrDigit(first) && first == last;
+    public boolean anyMatch(CharSequence chars) {
+        return getSnapshot().anyMatch(chars);
+    }
+
+    /**
+     * Reference implementation of {@link #ranges(CharSequence)}, using the regular expressions of the formats.
+     */
+    public Stream<PersonalIdentityNumberPatternMatch> patternRanges(CharSequence chars) {
+        return getSnapshot().patternRanges(chars);
     }
 
     public List<PersonalIdentityNumberFormat> getFormats() {
-        return formats;
+        return getSnapshot().getFormats();
     }
 
     public void setFormats(List<PersonalIdentityNumberFormat> formats) {
-        this.formats = formats;
-        this.pattern = Pattern.compile(formats.stream()
-                .map(PersonalIdentityNumberFormat::buildString)
-                .collect(joining("|", "(?:", ")")));
+        snapshot.updateAndGet(s -> new Snapshot(formats, s.coordinationNumber, s.organisationNumber));
     }
 
     public boolean getCoordinationNumber() {
-        return coordinationNumber;
+        return getSnapshot().coordinationNumber;
     }
 
     public void setCoordinationNumber(boolean coordinationNumber) {
-        this.coordinationNumber = coordinationNumber;
+        snapshot.updateAndGet(s -> new Snapshot(s.formats, coordinationNumber, s.organisationNumber));
+    }
+
+    public boolean getOrganisationNumber() {
+        return getSnapshot().organisationNumber;
+    }
+
+    /**
+     * @param organisationNumber whether to also find organisation numbers, pushed to {@link MatchSink#acceptOrganisationNumber(OrganisationNumberMatch)}
+     */
+    public void setOrganisationNumber(boolean organisationNumber) {
+        snapshot.updateAndGet(s -> new Snapshot(s.formats, s.coordinationNumber, organisationNumber));
     }
 
     public Predicate<PersonalIdentityNumberPatternMatch> getPredicate() {
-        return coordinationNumber
-                ? pn -> true
-                : personalNumber -> !personalNumber.isCoordinationNumber();
+        return getSnapshot().getPredicate();
+    }
+
+    /**
+     * Immutable formats with their scanner, for scanning many elements with the same configuration. The scanner is
+     * built when it is first used, so a snapshot that is replaced before it scans anything, e.g. while the formats are
+     * being edited, costs next to nothing.
+     */
+    public static class Snapshot {
+        private final List<PersonalIdentityNumberFormat> formats;
+        private final boolean coordinationNumber;
+        private final boolean organisationNumber;
+        private volatile PersonalIdentityNumberScanner scanner;
+        private volatile Pattern pattern;
+
+        Snapshot(List<PersonalIdentityNumberFormat> formats, boolean coordinationNumber, boolean organisationNumber) {
+            this.formats = formats.stream().map(PersonalIdentityNumberFormat::copy).collect(toUnmodifiableList());
+            this.coordinationNumber = coordinationNumber;
+            this.organisationNumber = organisationNumber;
+        }
+
+        /**
+         * @return unmodifiable copies of the formats, changing them does not affect this snapshot
+         */
+        public List<PersonalIdentityNumberFormat> getFormats() {
+            return formats.stream().map(PersonalIdentityNumberFormat::copy).collect(toUnmodifiableList());
+        }
+
+        public boolean getCoordinationNumber() {
+            return coordinationNumber;
+        }
+
+        public boolean getOrganisationNumber() {
+            return organisationNumber;
+        }
+
+        public Stream<PersonalIdentityNumberPatternMatch> ranges(CharSequence chars, ScanContext context) {
+            List<PersonalIdentityNumberPatternMatch> matches = new ArrayList<>();
+            scan(chars, context, matches::add);
+            return matches.stream();
+        }
+
+        public void scan(CharSequence chars, ScanContext context, MatchSink sink) {
+            getScanner().scan(chars, context, sink);
+        }
+
+        public void scanLines(CharSequence chars, ScanContext context, MatchSink sink) {
+            scanLines(chars, 0, chars.length(), context, sink);
+        }
+
+        /**
+         * @see PersonalIdentityNumberScanner#scanLines(CharSequence, int, int, ScanContext, MatchSink)
+         */
+        public void scanLines(CharSequence chars, int from, int to, ScanContext context, MatchSink sink) {
+            getScanner().scanLines(chars, from, to, context, sink);
+        }
+
+        public boolean isLineScannable() {
+            return getScanner().isLineScannable();
+        }
+
+        public boolean anyMatch(CharSequence chars) {
+            return anyMatch(chars, new ScanContext());
+        }
+
+        public boolean anyMatch(CharSequence chars, ScanContext context) {
+            return getScanner().scan(chars, context, null);
+        }
+
+        public Stream<PersonalIdentityNumberPatternMatch> patternRanges(CharSequence chars) {
+            ScanContext context = new ScanContext();
+            return getPattern().matcher(chars).results()
+                    .map(match -> PersonalIdentityNumberPatternMatch.of(chars, context, match))
+                    .filter(match -> test(chars, match));
+        }
+
+        private boolean test(CharSequence chars, PersonalIdentityNumberPatternMatch match) {
+            return PersonalIdentityNumberScanner.isDelimited(chars, match.getStartOffset(), match.getEndOffset())
+                    && formats.get(match.getMatchedPatternIndex()).getPredicate().test(match)
+                    && getPredicate().test(match);
+        }
+
+        private PersonalIdentityNumberScanner getScanner() {
+            PersonalIdentityNumberScanner scanner = this.scanner;
+            if (null == scanner) {
+                scanner = PersonalIdentityNumberScanner.getInstance(formats, coordinationNumber, organisationNumber);
+                this.scanner = scanner;
+            }
+            return scanner;
+        }
+
+        private Pattern getPattern() {
+            Pattern pattern = this.pattern;
+            if (null == pattern) {
+                pattern = Pattern.compile(formats.stream()
+                        .map(PersonalIdentityNumberFormat::buildString)
+                        .collect(joining("|", "(?:", ")")));
+                this.pattern = pattern;
+            }
+            return pattern;
+        }
+
+        public Predicate<PersonalIdentityNumberPatternMatch> getPredicate() {
+            return coordinationNumber
+                    ? pn -> true
+                    : personalNumber -> !personalNumber.isCoordinationNumber();
+        }
     }
 }
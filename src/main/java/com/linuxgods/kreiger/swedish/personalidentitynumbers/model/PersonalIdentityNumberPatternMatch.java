@@ -4,42 +4,55 @@ import com.intellij.openapi.util.TextRange;
 import com.linuxgods.kreiger.swedish.personalidentitynumbers.inspection.quickfix.ReplaceQuickFix;
 import org.jetbrains.annotations.NotNull;
 
-import java.time.LocalDate;
-import java.time.YearMonth;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.regex.MatchResult;
 
 public class PersonalIdentityNumberPatternMatch {
     private static final int GROUP_COUNT = 6;
-    private final String original;
-    private final String date;
-    private final int year;
-    private final int month;
-    private final int dayPart;
-    private final String separator;
-    private final String suffix;
+    private final CharSequence chars;
+    private final ScanContext context;
     private final int matchedPatternIndex;
     private final int start;
+    private final int month;
+    private final int separator;
+    private final int suffix;
     private final int end;
+    private final int fullYear;
     private final int correctChecksum;
+    private final boolean validDayOfMonth;
     private PersonalIdentityNumber personalIdentityNumber;
     private Set<PersonalIdentityNumber.Fix> fixes;
 
-    PersonalIdentityNumberPatternMatch(MatchResult match) {
-        this.start = match.start();
-        this.end = match.end();
-        this.original = match.group();
-        this.matchedPatternIndex = getMatchedPatternIndex(match);
+    /**
+     * Only keeps the offsets of the parts of the match in {@code chars}, which must not change, and the results of
+     * {@link ValidationKernel#validate(CharSequence, Candidates) validating} it.
+     */
+    PersonalIdentityNumberPatternMatch(CharSequence chars, ScanContext context, int matchedPatternIndex, int start, int month, int separator, int suffix, int end,
+                                       int fullYear, int correctChecksum, boolean validDayOfMonth) {
+        this.chars = chars;
+        this.context = context;
+        this.matchedPatternIndex = matchedPatternIndex;
+        this.start = start;
+        this.month = month;
+        this.separator = separator;
+        this.suffix = suffix;
+        this.end = end;
+        this.fullYear = fullYear;
+        this.correctChecksum = correctChecksum;
+        this.validDayOfMonth = validDayOfMonth;
+    }
+
+    static PersonalIdentityNumberPatternMatch of(CharSequence chars, ScanContext context, MatchResult match) {
+        int matchedPatternIndex = getMatchedPatternIndex(match);
         int groupsStart = matchedPatternIndex*GROUP_COUNT;
-        this.date = match.group(1 + groupsStart);
-        this.year = Integer.parseInt(match.group(2 + groupsStart));
-        this.month = Integer.parseInt(match.group(3 + groupsStart));
-        this.dayPart = Integer.parseInt(match.group(4 + groupsStart));
-        this.separator = match.group(5 + groupsStart);
-        this.suffix = match.group(6 + groupsStart);
-        this.correctChecksum = luhn(date.substring(date.length() - 6) + suffix.substring(0, 3));
-
+        Candidates candidates = new Candidates();
+        candidates.add(matchedPatternIndex, match.start(), match.start(3 + groupsStart), match.start(5 + groupsStart),
+                match.start(6 + groupsStart), match.end());
+        ValidationKernel.getInstance(context.getCurrentYear()).validate(chars, candidates);
+        return new PersonalIdentityNumberPatternMatch(chars, context, matchedPatternIndex, candidates.starts[0], candidates.months[0],
+                candidates.separators[0], candidates.suffixes[0], candidates.ends[0], candidates.years[0], candidates.checksums[0],
+                candidates.is(0, ValidationKernel.VALID_DAY_OF_MONTH));
     }
 
     public static int getMatchedPatternIndex(MatchResult match) {
@@ -53,40 +66,65 @@ public class PersonalIdentityNumberPatternMatch {
         return matchedPatternIndex;
     }
 
+    public ScanContext getScanContext() {
+        return context;
+    }
+
     public String getOriginal() {
-        return original;
+        return substring(start, end);
     }
 
     public int getYear() {
-        return year;
+        return parseInt(start, month);
+    }
+
+    /**
+     * @return the year with century, inferred from the current year and the separator if it is missing
+     */
+    public int getFullYear() {
+        return fullYear;
     }
 
     public int getMonth() {
-        return month;
+        return parseInt(month, month + 2);
     }
 
     public int getDayOfMonth() {
+        int dayPart = parseInt(month + 2, separator);
         return isCoordinationNumber() ? dayPart - 60 : dayPart;
     }
 
     public String getSeparator() {
-        return separator;
+        return substring(separator, suffix);
     }
 
     public String getSuffix() {
-        return suffix;
+        return substring(suffix, end);
     }
 
     public int getDayStart() {
-        return date.length() - 2;
+        return getDateLength() - 2;
     }
 
     public String getDate() {
-        return date;
+        return substring(start, separator);
+    }
+
+    public int getDateLength() {
+        return separator - start;
+    }
+
+    public IdentifierType getIdentifierType() {
+        return isCoordinationNumber() ? IdentifierType.COORDINATION_NUMBER : IdentifierType.PERSONAL_IDENTITY_NUMBER;
     }
 
     public boolean isCoordinationNumber() {
-        return dayPart > 60;
+        // Coordination numbers have 60 added to the day of month
+        return chars.charAt(month + 2) >= '6';
+    }
+
+    public boolean hasValidDayOfMonth() {
+        return validDayOfMonth;
     }
 
     public int getCorrectChecksum() {
@@ -94,30 +132,31 @@ public class PersonalIdentityNumberPatternMatch {
     }
 
     public String getChecksumDigit() {
-        return suffix.substring(3);
+        return hasChecksum() ? substring(end - 1, end) : "";
     }
 
+    public boolean hasCorrectChecksum() {
+        return !hasChecksum() || chars.charAt(end - 1) - '0' == correctChecksum;
+    }
 
-    // Copied under MIT license from "dev.personnummer:personnummer" at
-    // https://github.com/personnummer/java/blob/master/src/main/java/dev/personnummer/Personnummer.java
-    private static int luhn(String value) {
-        // Luhn/mod10 algorithm. Used to calculate a checksum from the
-        // passed value. The checksum is returned and tested against the control number
-        // in the personal identity number to make sure that it is a valid number.
-
-        int temp;
-        int sum = 0;
-
-        for (int i = 0; i < value.length(); i++) {
-            temp = Character.getNumericValue(value.charAt(i));
-            temp *= 2 - (i % 2);
-            if (temp > 9)
-                temp -= 9;
+    private String substring(int start, int end) {
+        return chars.subSequence(start, end).toString();
+    }
 
-            sum += temp;
+    private int parseInt(int start, int end) {
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            value = value * 10 + chars.charAt(i) - '0';
         }
+        return value;
+    }
 
-        return (10 - (sum % 10)) % 10;
+    public int getStartOffset() {
+        return start;
+    }
+
+    public int getEndOffset() {
+        return end;
     }
 
     public TextRange getTextRange() {
@@ -142,39 +181,36 @@ public class PersonalIdentityNumberPatternMatch {
         String date = getDate();
         String separator = getSeparator();
         if (date.length() == 6) {
-            String centuryDigits = getCenturyDigits(date, separator);
+            String centuryDigits = "" + fullYear / 100;
             fixes.add(PersonalIdentityNumber.Fix.info("Missing century digits '" + centuryDigits +"'", new ReplaceQuickFix("Add century digits", "Add century digits '" + centuryDigits + "'", TextRange.from(0, 0), centuryDigits)));
         } else {
             if (date.length() == 7) {
-                String millenniumDigit = getMillenniumDigit(date);
+                String millenniumDigit = "" + fullYear / 1000;
                 fixes.add(PersonalIdentityNumber.Fix.weakWarning("Missing millennium digit '" + millenniumDigit + "'", new ReplaceQuickFix("Add millennium digit", "Add millennium digit '" + millenniumDigit + "'", TextRange.from(0, 0), millenniumDigit)));
             }
             if (!separator.isEmpty()) {
                 String centuryDigits = date.substring(0, date.length() - 6);
                 fixes.add(PersonalIdentityNumber.Fix.info("Remove century digits '" + centuryDigits +"'", new ReplaceQuickFix("Remove century digits", "Remove century digits '" + centuryDigits + "'", TextRange.from(0, centuryDigits.length()), "")));
-                fixes.add(PersonalIdentityNumber.Fix.info("Remove separator '" + separator +"'", new ReplaceQuickFix("Remove separator", "Remove separator '" + separator + "'", TextRange.from(original.length() - suffix.length() - 1, 1), "")));
+                fixes.add(PersonalIdentityNumber.Fix.info("Remove separator '" + separator +"'", new ReplaceQuickFix("Remove separator", "Remove separator '" + separator + "'", TextRange.from(this.suffix - start - 1, 1), "")));
             }
         }
         if (separator.isEmpty()) {
-            String sep = getPersonalIdentityNumber().getCorrectSeparator();
-            fixes.add(PersonalIdentityNumber.Fix.info("Missing separator '" + sep +"'", new ReplaceQuickFix("Add separator", "Add separator '" + sep + "'", TextRange.from(original.length() - suffix.length(), 0), sep)));
+            String sep = getPersonalIdentityNumber().getCorrectSeparator(context.getCurrentYear());
+            fixes.add(PersonalIdentityNumber.Fix.info("Missing separator '" + sep +"'", new ReplaceQuickFix("Add separator", "Add separator '" + sep + "'", TextRange.from(this.suffix - start, 0), sep)));
         }
         int checksum = getCorrectChecksum();
-        String original = getOriginal();
-        String checksumDigit = getChecksumDigit();
-        if (checksumDigit.isEmpty()) {
+        int length = end - start;
+        if (!hasChecksum()) {
             fixes.add(PersonalIdentityNumber.Fix.weakWarning("Missing checksum digit '" + checksum+"'", new ReplaceQuickFix("Add checksum digit", "Add checksum digit '" + checksum + "'", TextRange.from(
-                    original.length(), 0), "" + checksum)));
-        } else if (!checksumDigit.equals("" + checksum)) {
-            fixes.add(PersonalIdentityNumber.Fix.weakWarning("Incorrect checksum digit '" + checksum+"'", new ReplaceQuickFix("Correct checksum digit", "Correct checksum digit " + checksum, TextRange.from(original.length() - 1, 1), "" + checksum)));
+                    length, 0), "" + checksum)));
+        } else if (!hasCorrectChecksum()) {
+            fixes.add(PersonalIdentityNumber.Fix.weakWarning("Incorrect checksum digit '" + checksum+"'", new ReplaceQuickFix("Correct checksum digit", "Correct checksum digit " + checksum, TextRange.from(length - 1, 1), "" + checksum)));
         }
-        YearMonth yearMonth = YearMonth.of(getYear(), getMonth());
-        int lengthOfMonth = yearMonth.lengthOfMonth();
-        int dayOfMonth = getDayOfMonth();
-        if (dayOfMonth > lengthOfMonth) {
+        if (!validDayOfMonth) {
+            int lengthOfMonth = ValidationKernel.lengthOfMonth(fullYear, getMonth());
             String newDayOfMonth = String.format("%02d", lengthOfMonth);
             int dayStart = getDayStart();
-            fixes.add(PersonalIdentityNumber.Fix.weakWarning("Only " + lengthOfMonth + " days in " + yearMonth, new ReplaceQuickFix("Invalid day of month", "Set day to " + newDayOfMonth, TextRange.from(
+            fixes.add(PersonalIdentityNumber.Fix.weakWarning("Only " + lengthOfMonth + " days in " + String.format("%d-%02d", fullYear, getMonth()), new ReplaceQuickFix("Invalid day of month", "Set day to " + newDayOfMonth, TextRange.from(
                     dayStart, 2), newDayOfMonth)));
         }
 
@@ -190,58 +226,18 @@ public class PersonalIdentityNumberPatternMatch {
     }
 
     private String getCorrectSuffix() {
-        String suffix = getSuffix();
-        String checksumDigit = getChecksumDigit();
-        int checksum = getCorrectChecksum();
-        if (checksumDigit.isEmpty()) {
-            suffix += checksum;
-        } else if (!checksumDigit.equals("" + checksum)) {
-            suffix = suffix.substring(0, 3) + checksum;
-        }
-        return suffix;
+        return substring(suffix, suffix + 3) + getCorrectChecksum();
     }
 
     @NotNull private String getFullDate() {
-        String date = getDate();
-        switch (date.length()) {
-            case 7:
-                date = getMillenniumDigit(date) + date;
-                break;
-            case 6:
-                date = getCenturyDigits(date, getSeparator()) + date;
-                break;
-        }
-        return date;
-    }
-
-    @NotNull static String getMillenniumDigit(String date) {
-        String millenniumDigit;
-        switch (date.charAt(0)) {
-            case '8':
-            case '9':
-                millenniumDigit = "1";
-                break;
-            case '0':
-                millenniumDigit = "2";
-                break;
-            default:
-                throw new RuntimeException("Invalid date " + date);
-        }
-        return millenniumDigit;
-    }
-
-    static String getCenturyDigits(String date, String separator) {
-        int yearInCentury = Integer.parseInt(date.substring(0, 2));
-        int century = (LocalDate.now(PersonalIdentityNumber.CLOCK).getYear() - yearInCentury) / 100;
-        if ("+".equals(separator)) century -= 1;
-        return ""+century;
+        return fullYear + substring(month, separator);
     }
 
     public boolean hasSeparator() {
-        return !separator.isEmpty();
+        return suffix > separator;
     }
 
     public boolean hasChecksum() {
-        return suffix.length() == 4;
+        return end - suffix == 4;
     }
 }
@@ -0,0 +1,819 @@
+package com.linuxgods.kreiger.swedish.personalidentitynumbers.model;
+
+import com.intellij.util.text.CharSequenceSubSequence;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.linuxgods.kreiger.swedish.personalidentitynumbers.model.Requirement.*;
+import static java.util.stream.Collectors.toUnmodifiableList;
+
+/**
+ * Finds personal identity numbers, and optionally organisation numbers, in one pass without regular expressions.
+ * <p>
+ * Finds exactly the same matches as the alternation of {@link PersonalIdentityNumberFormat#buildString()}
+ * patterns, by trying the formats in order at each digit, and the optional parts of each format in the same order
+ * as the regex engine would backtrack through them.
+ * <p>
+ * Text that is lines of fixed width records of a {@linkplain PersonalIdentityNumberFormat#isColumnar() columnar}
+ * format is matched at the columns of each record, and by the other formats wherever they do not overlap a column.
+ */
+class PersonalIdentityNumberScanner {
+
+    // YYMMDD
+    private static final int DATE_DIGITS = 6;
+    // YYMMDDXXX
+    private static final int DATE_AND_BIRTH_NUMBER_DIGITS = 9;
+    private static final int CACHE_SIZE = 16;
+    // How many chars to scan between checks for cancellation and budget
+    private static final int CHECK_INTERVAL = 1 << 14;
+    // Texts at least this long are scanned in chunks in parallel
+    static final int PARALLEL_THRESHOLD = 1 << 22;
+    private static final int CHUNK_SIZE = 1 << 20;
+    private static final int LINE_BREAK_SEARCH = 1 << 12;
+    // Text is only taken for records when it has at least this many lines of the record length
+    private static final int MIN_RECORDS = 2;
+    private static final int SAMPLED_RECORDS = 64;
+
+    // Shared by all inspection profiles and scopes with the same formats.
+    private static final Map<Key, PersonalIdentityNumberScanner> CACHE = new LinkedHashMap<>(CACHE_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, PersonalIdentityNumberScanner> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    private final FormatMatcher[] matchers;
+    private final RecordLayout[] layouts;
+    private final boolean freeText;
+    private final boolean coordinationNumber;
+    private final boolean organisationNumber;
+    private final boolean surroundingDigitsAllowed;
+    private final int minRun;
+    private final DigitRunPrefilter prefilter;
+
+    static PersonalIdentityNumberScanner getInstance(List<PersonalIdentityNumberFormat> formats, boolean coordinationNumber, boolean organisationNumber) {
+        Key key = new Key(formats, coordinationNumber, organisationNumber);
+        synchronized (CACHE) {
+            return CACHE.computeIfAbsent(key, k -> new PersonalIdentityNumberScanner(k.formats, k.coordinationNumber, k.organisationNumber,
+                    DigitRunPrefilter.getInstance()));
+        }
+    }
+
+    PersonalIdentityNumberScanner(List<PersonalIdentityNumberFormat> formats, boolean coordinationNumber, boolean organisationNumber,
+                                  DigitRunPrefilter prefilter) {
+        this.matchers = formats.stream().map(FormatMatcher::new).toArray(FormatMatcher[]::new);
+        this.layouts = RecordLayout.of(formats);
+        this.freeText = organisationNumber || formats.stream().anyMatch(format -> !format.isColumnar());
+        this.coordinationNumber = coordinationNumber;
+        this.organisationNumber = organisationNumber;
+        this.surroundingDigitsAllowed = formats.stream()
+                .anyMatch(format -> !format.isColumnar() && format.isSurroundingDigitsAllowed());
+        this.minRun = organisationNumber ? DATE_DIGITS : formats.stream()
+                .filter(format -> !format.isColumnar())
+                .mapToInt(format -> format.getSeparator() == REJECTED ? DATE_AND_BIRTH_NUMBER_DIGITS : DATE_DIGITS)
+                .min()
+                .orElse(DATE_DIGITS);
+        this.prefilter = prefilter;
+    }
+
+    /**
+     * Pushes matches to {@code sink} in offset order, until it returns {@code false}.
+     *
+     * @param sink {@code null} to stop at the first match, without creating it
+     * @return whether the scan was stopped by the sink, or at the first match without a sink. A scan stopped by the
+     * {@linkplain ScanContext#isBudgetExceeded() budget} returns {@code false}.
+     */
+    boolean scan(CharSequence chars, ScanContext context, @Nullable MatchSink sink) {
+        context.startScan();
+        try {
+            for (RecordLayout layout : layouts) {
+                if (layout.isRecords(chars)) {
+                    return scanRecordsAndFreeText(chars, context, sink, layout);
+                }
+            }
+            return scanFreeText(chars, context, sink);
+        } finally {
+            context.endScan();
+        }
+    }
+
+    private boolean scanFreeText(CharSequence chars, ScanContext context, @Nullable MatchSink sink) {
+        if (!freeText) return false;
+        if (sink != null && chars.length() >= PARALLEL_THRESHOLD) {
+            return scanParallel(chars, context, sink);
+        }
+        return scanFreeText(chars, 0, chars.length(), context, sink);
+    }
+
+    /**
+     * Finds the matches at the columns of the records first, and then merges them with the matches of the other
+     * formats that do not overlap them.
+     */
+    private boolean scanRecordsAndFreeText(CharSequence chars, ScanContext context, @Nullable MatchSink sink, RecordLayout layout) {
+        if (!freeText || sink == null) {
+            return scanRecords(chars, context, sink, layout) || !context.isBudgetExceeded() && scanFreeText(chars, context, sink);
+        }
+        List<PersonalIdentityNumberPatternMatch> columnMatches = new ArrayList<>();
+        scanRecords(chars, context, columnMatches::add, layout);
+        ColumnMatchesSink merged = new ColumnMatchesSink(columnMatches, sink);
+        if (!context.isBudgetExceeded() && scanFreeText(chars, context, merged)) return true;
+        return !merged.pushColumnMatchesBefore(Integer.MAX_VALUE);
+    }
+
+    /**
+     * @return whether the text can be scanned in chunks of lines, i.e. there are no record layouts, which need to see
+     * all of the text to tell whether it is records
+     */
+    boolean isLineScannable() {
+        return layouts.length == 0;
+    }
+
+    /**
+     * Scans the lines in {@code [from, to)} of {@code chars}, where {@code from} is 0 or follows a line break, and
+     * {@code to} is the length of {@code chars} or follows a line break. Lines of only digits, like in the official
+     * whitelists with one number per line, are matched directly at their start, and other lines are scanned as free
+     * text. Finds the same matches in the lines as {@link #scan}, since no match contains a line break.
+     *
+     * @return whether the scan was stopped by the sink
+     */
+    boolean scanLines(CharSequence chars, int from, int to, ScanContext context, MatchSink sink) {
+        if (!freeText) return false;
+        context.startScan();
+        Candidates batch = context.takeCandidates();
+        try {
+            return findLineCandidates(chars, from, to, context, sink, batch) || flush(chars, context, sink, batch);
+        } finally {
+            context.returnCandidates(batch);
+            context.endScan();
+        }
+    }
+
+    private boolean findLineCandidates(CharSequence chars, int from, int to, ScanContext context, MatchSink sink, Candidates batch) {
+        int[] offsets = new int[3];
+        // The chars of digit lines before this offset are charged to the budget
+        int charged = from;
+        for (int line = from; line < to; ) {
+            int end = line;
+            boolean digits = true;
+            for (char c; end < to && (c = chars.charAt(end)) != '\n'; end++) {
+                digits &= isDigit(c);
+            }
+            if (!digits || surroundingDigitsAllowed) {
+                if (line > charged && !context.scanned(line - charged)) return false;
+                if (findCandidates(chars, line, end, context, sink, batch)) return true;
+                if (context.isBudgetExceeded()) return false;
+                charged = end;
+            } else {
+                if (end - charged >= CHECK_INTERVAL) {
+                    if (!context.scanned(end - charged)) return false;
+                    charged = end;
+                }
+                // Without surrounding digits, only the start of the line can begin a match
+                if (end - line >= minRun && matchAt(chars, line, offsets, batch) >= 0
+                        && batch.size == Candidates.CAPACITY && flush(chars, context, sink, batch)) return true;
+            }
+            line = end + 1;
+        }
+        if (to > charged) {
+            context.scanned(to - charged);
+        }
+        return false;
+    }
+
+    /**
+     * Scans {@code [from, to)} of {@code chars}, where {@code from} is 0 or follows a {@linkplain #isBoundary(char) boundary},
+     * and {@code to} is the length of {@code chars} or follows a boundary.
+     */
+    private boolean scanFreeText(CharSequence chars, int from, int to, ScanContext context, @Nullable MatchSink sink) {
+        Candidates batch = context.takeCandidates();
+        try {
+            return findCandidates(chars, from, to, context, sink, batch) || flush(chars, context, sink, batch);
+        } finally {
+            context.returnCandidates(batch);
+        }
+    }
+
+    /**
+     * Adds the candidates in {@code [from, to)} to {@code batch}, and flushes it to {@code sink} whenever it is full.
+     *
+     * @return whether a flush was stopped by the sink
+     */
+    private boolean findCandidates(CharSequence chars, int from, int to, ScanContext context, @Nullable MatchSink sink, Candidates batch) {
+        int[] offsets = new int[3];
+        // The chars before this offset are charged to the budget
+        int charged = from;
+        int polled = from;
+        int openRun = from;
+        int p = from;
+        runs:
+        while (p < to) {
+            if (p >= charged && (charged = charge(context, p, to)) < 0) return false;
+            int found = prefilter.nextRun(chars, p, charged, openRun, minRun);
+            if (found < 0) {
+                openRun = ~found;
+                p = charged;
+                continue;
+            }
+            p = found;
+            int runEnd = p + minRun;
+            while (runEnd < to && isDigit(chars.charAt(runEnd))) {
+                if (runEnd >= charged && (charged = charge(context, runEnd, to)) < 0) return false;
+                runEnd++;
+            }
+            // A match needs at least minRun digits from its start.
+            for (int lastStart = runEnd - minRun; p <= lastStart; ) {
+                if (p - polled >= CHECK_INTERVAL) {
+                    if (!context.check()) return false;
+                    polled = p;
+                }
+                int end = matchAt(chars, p, offsets, batch);
+                if (end >= 0 && batch.size == Candidates.CAPACITY && flush(chars, context, sink, batch)) return true;
+                if (end >= runEnd) {
+                    p = openRun = end;
+                    continue runs;
+                }
+                if (end >= 0) {
+                    // Only formats that allow surrounding digits can match in the rest of the run.
+                    p = end;
+                    continue;
+                }
+                // Only the start of a run of digits can begin a match.
+                if (!surroundingDigitsAllowed) break;
+                p++;
+            }
+            p = openRun = runEnd;
+        }
+        return false;
+    }
+
+    /**
+     * Splits {@code chars} into chunks at boundaries, that no match can contain or be delimited by, so each chunk
+     * finds the same matches as a scan of all of {@code chars} would. The chunks are scanned on the common fork-join
+     * pool, and their matches are pushed to {@code sink} in order on this thread. The chunks that are still running
+     * stop when the sink stops, or the scan is cancelled.
+     */
+    private boolean scanParallel(CharSequence chars, ScanContext context, MatchSink sink) {
+        int length = chars.length();
+        AtomicBoolean stopped = new AtomicBoolean();
+        List<Chunk> chunks = new ArrayList<>();
+        for (int from = 0; from < length; ) {
+            int to = length - from > CHUNK_SIZE + CHUNK_SIZE / 2 ? nextBoundary(chars, from + CHUNK_SIZE) : length;
+            chunks.add(new Chunk(chars, from, to, context.fork(stopped)));
+            from = to;
+        }
+        chunks.forEach(Chunk::fork);
+        try {
+            for (Chunk chunk : chunks) {
+                chunk.join();
+                context.join(chunk.context);
+                if (!chunk.push(sink)) return true;
+                // Checked on this thread as well, since the cancellation check may only work on the calling thread
+                if (!context.check()) return false;
+            }
+            return false;
+        } finally {
+            stopped.set(true);
+            chunks.forEach(chunk -> chunk.cancel(false));
+        }
+    }
+
+    /**
+     * @return the offset after the first boundary from {@code from}, preferably a line break, or the length of {@code chars}
+     */
+    static int nextBoundary(CharSequence chars, int from) {
+        int length = chars.length();
+        for (int i = from, end = Math.min(length, from + LINE_BREAK_SEARCH); i < end; i++) {
+            if (chars.charAt(i) == '\n') return i + 1;
+        }
+        for (int i = from; i < length; i++) {
+            if (isBoundary(chars.charAt(i))) return i + 1;
+        }
+        return length;
+    }
+
+    /**
+     * No match contains a boundary char, and it does not prevent a match next to it, just like the start or end of the text.
+     */
+    private static boolean isBoundary(char c) {
+        return !isDigit(c) && !isDelimiter(c);
+    }
+
+    private class Chunk extends RecursiveAction implements MatchSink {
+        private static final long serialVersionUID = 1L;
+
+        private final CharSequence chars;
+        private final int from;
+        private final int to;
+        private final ScanContext context;
+        private final List<PersonalIdentityNumberPatternMatch> matches = new ArrayList<>();
+        private final List<OrganisationNumberMatch> organisationNumbers = new ArrayList<>();
+
+        Chunk(CharSequence chars, int from, int to, ScanContext context) {
+            this.chars = chars;
+            this.from = from;
+            this.to = to;
+            this.context = context;
+        }
+
+        @Override
+        protected void compute() {
+            scanFreeText(chars, from, to, context, this);
+        }
+
+        @Override
+        public boolean accept(PersonalIdentityNumberPatternMatch match) {
+            return matches.add(match);
+        }
+
+        @Override
+        public boolean acceptOrganisationNumber(OrganisationNumberMatch match) {
+            return organisationNumbers.add(match);
+        }
+
+        /**
+         * Pushes the matches to {@code sink} in offset order.
+         *
+         * @return {@code false} if the sink stopped
+         */
+        boolean push(MatchSink sink) {
+            int o = 0;
+            for (PersonalIdentityNumberPatternMatch match : matches) {
+                for (; o < organisationNumbers.size() && organisationNumbers.get(o).getStartOffset() < match.getStartOffset(); o++) {
+                    if (!sink.acceptOrganisationNumber(organisationNumbers.get(o))) return false;
+                }
+                if (!sink.accept(match)) return false;
+            }
+            for (; o < organisationNumbers.size(); o++) {
+                if (!sink.acceptOrganisationNumber(organisationNumbers.get(o))) return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Tries the formats in order at {@code p}, and then an organisation number, and adds the match to {@code batch}.
+     *
+     * @return the end of the match at {@code p}, or -1 if there is none
+     */
+    private int matchAt(CharSequence chars, int p, int[] offsets, Candidates batch) {
+        boolean runStart = p == 0 || !isDigit(chars.charAt(p - 1));
+        for (int i = 0; i < matchers.length; i++) {
+            FormatMatcher matcher = matchers[i];
+            if (matcher.columnar || !runStart && !matcher.surroundingDigitsAllowed) continue;
+            int end = matcher.matchAt(chars, p, offsets);
+            if (end >= 0) {
+                batch.add(i, p, offsets[0], offsets[1], offsets[2], end);
+                return end;
+            }
+        }
+        if (organisationNumber && runStart) {
+            int end = matchOrganisationNumber(chars, p, offsets);
+            if (end >= 0) {
+                batch.addOrganisationNumber(p, offsets[0], offsets[1], end);
+                return end;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Validates the candidates of {@code batch} together, and pushes those that are accepted to {@code sink}.
+     *
+     * @return whether the sink stopped the scan, or there was an accepted candidate without a sink
+     */
+    private boolean flush(CharSequence chars, ScanContext context, @Nullable MatchSink sink, Candidates batch) {
+        ValidationKernel.getInstance(context.getCurrentYear()).validate(chars, batch);
+        try {
+            for (int i = 0; i < batch.size; i++) {
+                if (accepts(context, batch, i) && (sink == null || !push(chars, context, sink, batch, i))) return true;
+            }
+            return false;
+        } finally {
+            batch.clear();
+        }
+    }
+
+    private static boolean push(CharSequence chars, ScanContext context, MatchSink sink, Candidates batch, int i) {
+        if (batch.isOrganisationNumber(i)) {
+            return sink.acceptOrganisationNumber(new OrganisationNumberMatch(chars, batch.starts[i], batch.months[i], batch.suffixes[i], batch.ends[i]));
+        }
+        return sink.accept(new PersonalIdentityNumberPatternMatch(chars, context, batch.formatIndexes[i], batch.starts[i],
+                batch.months[i], batch.separators[i], batch.suffixes[i], batch.ends[i],
+                batch.years[i], batch.checksums[i], batch.is(i, ValidationKernel.VALID_DAY_OF_MONTH)));
+    }
+
+    /**
+     * Charges the next window of chars from {@code offset} to the budget of {@code context}.
+     *
+     * @return the end of the charged window, or -1 when the budget is spent
+     */
+    private static int charge(ScanContext context, int offset, int to) {
+        int window = Math.min(CHECK_INTERVAL, to - offset);
+        return context.scanned(window) ? offset + window : -1;
+    }
+
+    /**
+     * Only tries the columns of each record, so the time depends on the number of records rather than their length.
+     */
+    private boolean scanRecords(CharSequence chars, ScanContext context, @Nullable MatchSink sink, RecordLayout layout) {
+        Candidates batch = context.takeCandidates();
+        try {
+            return findRecordCandidates(chars, context, sink, layout, batch) || flush(chars, context, sink, batch);
+        } finally {
+            context.returnCandidates(batch);
+        }
+    }
+
+    private boolean findRecordCandidates(CharSequence chars, ScanContext context, @Nullable MatchSink sink, RecordLayout layout, Candidates batch) {
+        int length = chars.length();
+        int[] offsets = new int[3];
+        int charged = 0;
+        int recordStart = 0;
+        while (recordStart + layout.recordLength <= length) {
+            if (recordStart >= charged && (charged = charge(context, recordStart, length)) < 0) return false;
+            CharSequence record = new CharSequenceSubSequence(chars, recordStart, recordStart + layout.recordLength);
+            int matchEnd = 0;
+            for (int c = 0; c < layout.columns.length; c++) {
+                int column = layout.columns[c];
+                if (column < matchEnd) continue;
+                for (int i : layout.formatIndexes[c]) {
+                    FormatMatcher matcher = matchers[i];
+                    int end = matcher.matchAt(record, column, offsets);
+                    if (end < 0) continue;
+                    if (batch.add(i, recordStart + column, recordStart + offsets[0], recordStart + offsets[1],
+                            recordStart + offsets[2], recordStart + end) && flush(chars, context, sink, batch)) {
+                        return true;
+                    }
+                    matchEnd = end;
+                    break;
+                }
+            }
+            recordStart = skipLineBreak(chars, recordStart + layout.recordLength);
+        }
+        return false;
+    }
+
+    private static int skipLineBreak(CharSequence chars, int offset) {
+        if (offset < chars.length() && chars.charAt(offset) == '\r') offset++;
+        if (offset < chars.length() && chars.charAt(offset) == '\n') offset++;
+        return offset;
+    }
+
+    private static boolean isLineBreak(char c) {
+        return c == '\r' || c == '\n';
+    }
+
+    /**
+     * Filters a validated candidate, before creating a match.
+     */
+    private boolean accepts(ScanContext context, Candidates batch, int i) {
+        context.candidates++;
+        FormatMatcher matcher = batch.isOrganisationNumber(i) ? null : matchers[batch.formatIndexes[i]];
+        if ((matcher == null || !matcher.columnar) && !batch.is(i, ValidationKernel.DELIMITED)) {
+            context.rejectedUndelimited++;
+            return false;
+        }
+        if ((matcher == null || !matcher.invalidChecksumAllowed) && !batch.is(i, ValidationKernel.CORRECT_CHECKSUM)) {
+            context.rejectedInvalidChecksum++;
+            return false;
+        }
+        if (matcher != null && !coordinationNumber && batch.is(i, ValidationKernel.COORDINATION_NUMBER)) {
+            context.rejectedCoordinationNumber++;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Tries with the "16" prefix first, like the personal identity number formats try with century digits first.
+     *
+     * @param offsets receives the start offsets of the ten digit number and of its last four digits
+     * @return the end offset of the organisation number at {@code start}, or -1
+     */
+    private static int matchOrganisationNumber(CharSequence chars, int start, int[] offsets) {
+        if (start > 0 && isDelimiter(chars.charAt(start - 1))) return -1;
+        if (isDigitBetween(chars, start, '1', '1') && isDigitBetween(chars, start + 1, '6', '6')) {
+            int end = matchOrganisationNumberAfterPrefix(chars, start + 2, offsets);
+            if (end >= 0) return end;
+        }
+        return matchOrganisationNumberAfterPrefix(chars, start, offsets);
+    }
+
+    private static int matchOrganisationNumberAfterPrefix(CharSequence chars, int number, int[] offsets) {
+        for (int i = number; i < number + 6; i++) {
+            if (!isDigitBetween(chars, i, '0', '9')) return -1;
+        }
+        // The group number, where personal identity numbers have the first digit of the month
+        if (chars.charAt(number + 2) < '2') return -1;
+        int suffix = number + 6;
+        if (suffix < chars.length() && chars.charAt(suffix) == '-') suffix++;
+        for (int i = suffix; i < suffix + 4; i++) {
+            if (!isDigitBetween(chars, i, '0', '9')) return -1;
+        }
+        int end = suffix + 4;
+        if (end < chars.length() && (isDigit(chars.charAt(end)) || isDelimiter(chars.charAt(end)))) return -1;
+        offsets[0] = number;
+        offsets[1] = suffix;
+        return end;
+    }
+
+    /**
+     * A match that leaves only one or two chars of {@code chars} must be delimited by them.
+     */
+    static boolean isDelimited(CharSequence chars, int start, int end) {
+        char first = chars.charAt(0);
+        char last = chars.charAt(chars.length() - 1);
+        switch (chars.length() - (end - start)) {
+            case 1:
+                return start == 1 && !Character.isLetterOrDigit(first)
+                        || !Character.isLetterOrDigit(last);
+            case 2:
+                return start == 1 && !Character.isLetterOrDigit(first) && first == last;
+            default:
+                return true;
+        }
+    }
+
+    static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isDigitBetween(CharSequence chars, int index, char min, char max) {
+        if (index >= chars.length()) return false;
+        char c = chars.charAt(index);
+        return c >= min && c <= max;
+    }
+
+    private static boolean isSeparator(char c) {
+        return c == '-' || c == '+';
+    }
+
+    private static boolean isDelimiter(char c) {
+        return isSeparator(c) || c == '.' || c == '<' || c == '>' || c == '=';
+    }
+
+    private static class FormatMatcher {
+        private final Requirement millennium;
+        private final Requirement century;
+        private final Requirement separator;
+        private final Requirement checksumDigit;
+        private final boolean invalidChecksumAllowed;
+        private final boolean surroundingDigitsAllowed;
+        private final boolean columnar;
+
+        FormatMatcher(PersonalIdentityNumberFormat format) {
+            this.invalidChecksumAllowed = format.isInvalidChecksumAllowed();
+            this.millennium = format.getMillennium();
+            this.century = format.getCentury();
+            this.separator = format.getSeparator();
+            this.checksumDigit = format.getChecksumDigit();
+            this.surroundingDigitsAllowed = format.isSurroundingDigitsAllowed();
+            this.columnar = format.isColumnar();
+        }
+
+        /**
+         * @param offsets receives the start offsets of the month, separator and suffix
+         * @return the end offset of the match at {@code start}, or -1
+         */
+        int matchAt(CharSequence chars, int start, int[] offsets) {
+            if (start > 0 && !isAllowedAround(chars.charAt(start - 1))) return -1;
+            int centuryLength = century == REJECTED ? -1 : centuryLength(chars, start);
+            if (centuryLength >= 0) {
+                int end = matchAfterCentury(chars, start + centuryLength, offsets);
+                if (end >= 0) return end;
+            }
+            if (century != REQUIRED) {
+                return matchAfterCentury(chars, start, offsets);
+            }
+            return -1;
+        }
+
+        private int centuryLength(CharSequence chars, int start) {
+            switch (millennium) {
+                case REQUIRED:
+                    if (isDigitBetween(chars, start, '1', '1')) {
+                        if (isDigitBetween(chars, start + 1, '8', '8') && isDigitBetween(chars, start + 2, '4', '9')) return 2;
+                        if (isDigitBetween(chars, start + 1, '9', '9')) return 2;
+                    } else if (isDigitBetween(chars, start, '2', '2') && isDigitBetween(chars, start + 1, '0', '0')) {
+                        return 2;
+                    }
+                    return -1;
+                case ALLOWED:
+                    if (isDigitBetween(chars, start, '1', '1')) {
+                        return centuryDigitLength(chars, start + 1) == 1 && !isDigitBetween(chars, start + 1, '0', '0') ? 2 : -1;
+                    }
+                    if (isDigitBetween(chars, start, '2', '2') && isDigitBetween(chars, start + 1, '0', '0')) return 2;
+                    return centuryDigitLength(chars, start);
+                default:
+                    return centuryDigitLength(chars, start);
+            }
+        }
+
+        private static int centuryDigitLength(CharSequence chars, int index) {
+            if (isDigitBetween(chars, index, '8', '8')) return isDigitBetween(chars, index + 1, '4', '9') ? 1 : -1;
+            return isDigitBetween(chars, index, '9', '9') || isDigitBetween(chars, index, '0', '0') ? 1 : -1;
+        }
+
+        private int matchAfterCentury(CharSequence chars, int yearInCentury, int[] offsets) {
+            int month = yearInCentury + 2;
+            int day = month + 2;
+            int dateEnd = day + 2;
+            if (!isDigitBetween(chars, yearInCentury, '0', '9') || !isDigitBetween(chars, yearInCentury + 1, '0', '9')) return -1;
+            if (!isMonth(chars, month) || !isDay(chars, day)) return -1;
+            boolean hasSeparator = dateEnd < chars.length() && isSeparator(chars.charAt(dateEnd));
+            if (hasSeparator && separator != REJECTED) {
+                int end = matchSuffix(chars, dateEnd + 1);
+                if (end >= 0) return found(offsets, month, dateEnd, dateEnd + 1, end);
+            }
+            if (separator != REQUIRED) {
+                int end = matchSuffix(chars, dateEnd);
+                if (end >= 0) return found(offsets, month, dateEnd, dateEnd, end);
+            }
+            return -1;
+        }
+
+        private static int found(int[] offsets, int month, int separator, int suffix, int end) {
+            offsets[0] = month;
+            offsets[1] = separator;
+            offsets[2] = suffix;
+            return end;
+        }
+
+        private int matchSuffix(CharSequence chars, int suffix) {
+            for (int i = suffix; i < suffix + 3; i++) {
+                if (!isDigitBetween(chars, i, '0', '9')) return -1;
+            }
+            if (chars.charAt(suffix) == '0' && chars.charAt(suffix + 1) == '0' && chars.charAt(suffix + 2) == '0') return -1;
+            int end = suffix + 3;
+            if (checksumDigit != REJECTED && isDigitBetween(chars, end, '0', '9') && isAllowedAfter(chars, end + 1)) {
+                return end + 1;
+            }
+            if (checksumDigit != REQUIRED && isAllowedAfter(chars, end)) {
+                return end;
+            }
+            return -1;
+        }
+
+        private static boolean isMonth(CharSequence chars, int month) {
+            return isDigitBetween(chars, month, '0', '0') && isDigitBetween(chars, month + 1, '1', '9')
+                    || isDigitBetween(chars, month, '1', '1') && isDigitBetween(chars, month + 1, '0', '2');
+        }
+
+        private static boolean isDay(CharSequence chars, int day) {
+            if (!isDigitBetween(chars, day, '0', '9')) return false;
+            switch (chars.charAt(day)) {
+                case '0': case '6':
+                    return isDigitBetween(chars, day + 1, '1', '9');
+                case '1': case '2': case '7': case '8':
+                    return isDigitBetween(chars, day + 1, '0', '9');
+                case '3': case '9':
+                    return isDigitBetween(chars, day + 1, '0', '1');
+                default:
+                    return false;
+            }
+        }
+
+        private boolean isAllowedAfter(CharSequence chars, int end) {
+            return end >= chars.length() || isAllowedAround(chars.charAt(end));
+        }
+
+        private boolean isAllowedAround(char c) {
+            // Columns of fixed width records are delimited by their offsets, not by the chars around them.
+            if (columnar) return true;
+            return !isDelimiter(c) && (surroundingDigitsAllowed || !isDigit(c));
+        }
+    }
+
+    /**
+     * The columns of all columnar formats with the same record length, and the formats to try at each column.
+     */
+    private static class RecordLayout {
+        private final int recordLength;
+        private final int[] columns;
+        private final int[][] formatIndexes;
+
+        private RecordLayout(int recordLength, SortedMap<Integer, List<Integer>> formatIndexesByColumn) {
+            this.recordLength = recordLength;
+            this.columns = formatIndexesByColumn.keySet().stream().mapToInt(Integer::intValue).toArray();
+            this.formatIndexes = formatIndexesByColumn.values().stream()
+                    .map(indexes -> indexes.stream().mapToInt(Integer::intValue).toArray())
+                    .toArray(int[][]::new);
+        }
+
+        static RecordLayout[] of(List<PersonalIdentityNumberFormat> formats) {
+            Map<Integer, SortedMap<Integer, List<Integer>>> columnsByRecordLength = new LinkedHashMap<>();
+            for (int i = 0; i < formats.size(); i++) {
+                PersonalIdentityNumberFormat format = formats.get(i);
+                if (!format.isColumnar()) continue;
+                SortedMap<Integer, List<Integer>> columns = columnsByRecordLength.computeIfAbsent(format.getRecordLength(), l -> new TreeMap<>());
+                for (int column : format.getColumns()) {
+                    if (column >= format.getRecordLength()) continue;
+                    columns.computeIfAbsent(column, c -> new ArrayList<>()).add(i);
+                }
+            }
+            return columnsByRecordLength.entrySet().stream()
+                    .filter(entry -> !entry.getValue().isEmpty())
+                    .map(entry -> new RecordLayout(entry.getKey(), entry.getValue()))
+                    .toArray(RecordLayout[]::new);
+        }
+
+        /**
+         * @return whether {@code chars} is several lines that all have exactly the record length and the same line
+         * separator, judging by the first lines and the length of the text
+         */
+        boolean isRecords(CharSequence chars) {
+            int length = chars.length();
+            if (length <= recordLength || !isLineBreak(chars.charAt(recordLength))) return false;
+            String separator = chars.charAt(recordLength) == '\r' && recordLength + 1 < length && chars.charAt(recordLength + 1) == '\n'
+                    ? "\r\n" : String.valueOf(chars.charAt(recordLength));
+            int unit = recordLength + separator.length();
+            // The last record may or may not end with a line separator
+            if (length % unit != 0 && (length + separator.length()) % unit != 0) return false;
+            int records = (length + separator.length()) / unit;
+            if (records < MIN_RECORDS) return false;
+            for (int record = 0, start = 0; record < Math.min(records, SAMPLED_RECORDS); record++, start += unit) {
+                for (int i = start; i < start + recordLength; i++) {
+                    if (isLineBreak(chars.charAt(i))) return false;
+                }
+                for (int i = 0, end = start + recordLength; i < separator.length() && end + i < length; i++) {
+                    if (chars.charAt(end + i) != separator.charAt(i)) return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Merges the matches of the free text formats with the matches at the columns of records, in offset order, and
+     * drops those that overlap a column match.
+     */
+    private static class ColumnMatchesSink implements MatchSink {
+        private final List<PersonalIdentityNumberPatternMatch> columnMatches;
+        private final MatchSink sink;
+        // The next column match to push
+        private int next;
+
+        ColumnMatchesSink(List<PersonalIdentityNumberPatternMatch> columnMatches, MatchSink sink) {
+            this.columnMatches = columnMatches;
+            this.sink = sink;
+        }
+
+        @Override
+        public boolean accept(PersonalIdentityNumberPatternMatch match) {
+            if (!pushColumnMatchesBefore(match.getStartOffset())) return false;
+            return overlapsColumnMatch(match.getStartOffset(), match.getEndOffset()) || sink.accept(match);
+        }
+
+        @Override
+        public boolean acceptOrganisationNumber(OrganisationNumberMatch match) {
+            if (!pushColumnMatchesBefore(match.getStartOffset())) return false;
+            return overlapsColumnMatch(match.getStartOffset(), match.getEndOffset()) || sink.acceptOrganisationNumber(match);
+        }
+
+        /**
+         * @return {@code false} if the sink stopped the scan
+         */
+        boolean pushColumnMatchesBefore(int offset) {
+            while (next < columnMatches.size() && columnMatches.get(next).getStartOffset() < offset) {
+                if (!sink.accept(columnMatches.get(next++))) return false;
+            }
+            return true;
+        }
+
+        private boolean overlapsColumnMatch(int start, int end) {
+            return next > 0 && columnMatches.get(next - 1).getEndOffset() > start
+                    || next < columnMatches.size() && columnMatches.get(next).getStartOffset() < end;
+        }
+    }
+
+    private static class Key {
+        private final List<PersonalIdentityNumberFormat> formats;
+        private final boolean coordinationNumber;
+        private final boolean organisationNumber;
+
+        Key(List<PersonalIdentityNumberFormat> formats, boolean coordinationNumber, boolean organisationNumber) {
+            this.formats = formats.stream().map(PersonalIdentityNumberFormat::copy).collect(toUnmodifiableList());
+            this.coordinationNumber = coordinationNumber;
+            this.organisationNumber = organisationNumber;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+
+            Key that = (Key) o;
+
+            return coordinationNumber == that.coordinationNumber && organisationNumber == that.organisationNumber
+                    && formats.equals(that.formats);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * formats.hashCode() + (coordinationNumber ? 1 : 0)) + (organisationNumber ? 1 : 0);
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.linuxgods.kreiger.swedish.personalidentitynumbers.model;
+
+import java.time.Duration;
+import java.time.Year;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * State shared by all matches of one scan, such as one inspection pass over a file.
+ * <p>
+ * The scanner polls the context every few thousand chars, to let the scan be cancelled, and to stop it when
+ * the budget of chars or time is spent.
+ */
+public class ScanContext {
+    private final int currentYear;
+    private final Budget budget;
+    // Shared by the forks of one parallel scan, to stop them all
+    private final AtomicBoolean stopped;
+    int candidates;
+    int rejectedUndelimited;
+    int rejectedInvalidChecksum;
+    int rejectedCoordinationNumber;
+    private Candidates candidateBatch;
+
+    public ScanContext() {
+        this(Year.now(PersonalIdentityNumber.CLOCK).getValue());
+    }
+
+    public ScanContext(int currentYear) {
+        this(currentYear, new Budget(), new AtomicBoolean());
+    }
+
+    private ScanContext(int currentYear, Budget budget, AtomicBoolean stopped) {
+        this.currentYear = currentYear;
+        this.budget = budget;
+        this.stopped = stopped;
+    }
+
+    /**
+     * @param stopped set to stop the scans with the fork, e.g. when the sink of a parallel scan stops early
+     * @return a context for scanning part of the text on another thread, sharing the budget with this one
+     */
+    ScanContext fork(AtomicBoolean stopped) {
+        return new ScanContext(currentYear, budget, stopped);
+    }
+
+    /**
+     * Adds the counts of a {@linkplain #fork() forked} context to this one, once it is done.
+     */
+    void join(ScanContext fork) {
+        candidates += fork.candidates;
+        rejectedUndelimited += fork.rejectedUndelimited;
+        rejectedInvalidChecksum += fork.rejectedInvalidChecksum;
+        rejectedCoordinationNumber += fork.rejectedCoordinationNumber;
+    }
+
+    /**
+     * @return a batch for the candidates of one scan, reused by the following scans with this context
+     */
+    Candidates takeCandidates() {
+        Candidates batch = candidateBatch;
+        candidateBatch = null;
+        return batch != null ? batch : new Candidates();
+    }
+
+    void returnCandidates(Candidates batch) {
+        batch.clear();
+        candidateBatch = batch;
+    }
+
+    public int getCurrentYear() {
+        return currentYear;
+    }
+
+    /**
+     * @param cancellationCheck throws to cancel the scan, e.g. {@code ProgressIndicator::checkCanceled}. Also called
+     * from the threads of a parallel scan, where it may do nothing, since the scanning thread checks it between chunks
+     */
+    public ScanContext setCancellationCheck(Runnable cancellationCheck) {
+        budget.cancellationCheck = cancellationCheck;
+        return this;
+    }
+
+    /**
+     * Limits all scans with this context, such as all elements of a file, to about {@code maxChars} and {@code maxTime}.
+     *
+     * @param maxChars 0 for no limit
+     * @param maxTime {@link Duration#ZERO} for no limit, only counting the time spent in scans with this context
+     */
+    public ScanContext setBudget(long maxChars, Duration maxTime) {
+        budget.maxChars = maxChars > 0 ? maxChars : Long.MAX_VALUE;
+        budget.maxNanos = !maxTime.isZero() && !maxTime.isNegative() ? maxTime.toNanos() : Long.MAX_VALUE;
+        return this;
+    }
+
+    /**
+     * Counts the time until the matching {@link #endScan()} against the budget. Nested scans are only counted once.
+     */
+    void startScan() {
+        budget.startScan();
+    }
+
+    void endScan() {
+        budget.endScan();
+    }
+
+    /**
+     * Charges {@code chars} to the budget.
+     *
+     * @return {@code false} when the budget is spent, or the scan is stopped
+     */
+    boolean scanned(int chars) {
+        return budget.scanned(chars) && !stopped.get();
+    }
+
+    /**
+     * @return {@code false} when the budget is spent, or the scan is stopped
+     */
+    boolean check() {
+        return budget.check() && !stopped.get();
+    }
+
+    /**
+     * @return whether a scan was stopped before the end, because the budget was spent
+     */
+    public boolean isBudgetExceeded() {
+        return budget.exceeded;
+    }
+
+    public long getScannedChars() {
+        return budget.scannedChars.get();
+    }
+
+    /**
+     * @return the number of candidates found by the scanner, before filtering
+     */
+    public int getCandidates() {
+        return candidates;
+    }
+
+    public int getRejectedUndelimited() {
+        return rejectedUndelimited;
+    }
+
+    public int getRejectedInvalidChecksum() {
+        return rejectedInvalidChecksum;
+    }
+
+    public int getRejectedCoordinationNumber() {
+        return rejectedCoordinationNumber;
+    }
+
+    @Override
+    public String toString() {
+        return getScannedChars() + " chars" + (isBudgetExceeded() ? " (budget exceeded), " : ", ")
+                + candidates + " candidates, rejected " + rejectedUndelimited + " undelimited, "
+                + rejectedInvalidChecksum + " with invalid checksum, " + rejectedCoordinationNumber + " coordination numbers";
+    }
+
+    /**
+     * Shared by a context and its forks.
+     */
+    private static class Budget {
+        private volatile Runnable cancellationCheck = () -> {};
+        private volatile long maxChars = Long.MAX_VALUE;
+        private volatile long maxNanos = Long.MAX_VALUE;
+        private final AtomicLong scannedChars = new AtomicLong();
+        private volatile boolean exceeded;
+        // The time spent in earlier scans, and the start of the current one, also read by the threads of a parallel scan
+        private volatile long spentNanos;
+        private volatile long scanStart;
+        // Only used by the thread that starts and ends the scans
+        private int scans;
+
+        void startScan() {
+            if (scans++ == 0) {
+                scanStart = System.nanoTime();
+            }
+        }
+
+        void endScan() {
+            if (--scans == 0) {
+                spentNanos += System.nanoTime() - scanStart;
+            }
+        }
+
+        boolean scanned(int chars) {
+            if (scannedChars.addAndGet(chars) > maxChars) {
+                exceeded = true;
+            }
+            return check();
+        }
+
+        boolean check() {
+            cancellationCheck.run();
+            if (maxNanos != Long.MAX_VALUE && spentNanos + (System.nanoTime() - scanStart) > maxNanos) {
+                exceeded = true;
+            }
+            return !exceeded;
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.linuxgods.kreiger.swedish.personalidentitynumbers.model;
+
+import java.util.Arrays;
+
+class SortedNumberSet implements NumberSet {
+    private final long[] numbers;
+
+    SortedNumberSet(long[] numbers) {
+        this.numbers = numbers;
+    }
+
+    @Override
+    public int size() {
+        return numbers.length;
+    }
+
+    @Override
+    public int indexOf(long number) {
+        return Arrays.binarySearch(numbers, number);
+    }
+
+    @Override
+    public long get(int index) {
+        return numbers[index];
+    }
+}
@@ -0,0 +1,122 @@
+package com.linuxgods.kreiger.swedish.personalidentitynumbers.model;
+
+/**
+ * Validates a {@linkplain Candidates batch of candidates} at a time: checksums, days of month and full years,
+ * from lookup tables and without allocating.
+ */
+class ValidationKernel {
+    static final int DELIMITED = 1;
+    static final int CORRECT_CHECKSUM = 1 << 1;
+    static final int COORDINATION_NUMBER = 1 << 2;
+    static final int VALID_DAY_OF_MONTH = 1 << 3;
+
+    // The sum of the digits of twice the digit
+    private static final int[] DOUBLED = {0, 2, 4, 6, 8, 1, 3, 5, 7, 9};
+    // The checksum digit of each possible sum of nine Luhn digits
+    private static final int[] CHECKSUMS = new int[9 * 9 + 1];
+    private static final int[] DAYS_IN_MONTH = {0, 31, 28, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31};
+    // The first year of the century of each first digit of a YYYMMDD date
+    private static final int[] CENTURIES = {2000, -1, -1, -1, -1, -1, -1, -1, 1800, 1900};
+
+    static {
+        for (int sum = 0; sum < CHECKSUMS.length; sum++) {
+            CHECKSUMS[sum] = (10 - sum % 10) % 10;
+        }
+    }
+
+    private static volatile ValidationKernel instance;
+
+    private final int currentYear;
+    // The full year of each YY of a YYMMDD date, with a '-' separator
+    private final int[] years = new int[100];
+
+    private ValidationKernel(int currentYear) {
+        this.currentYear = currentYear;
+        for (int yearInCentury = 0; yearInCentury < years.length; yearInCentury++) {
+            years[yearInCentury] = (currentYear - yearInCentury) / 100 * 100 + yearInCentury;
+        }
+    }
+
+    static ValidationKernel getInstance(int currentYear) {
+        ValidationKernel kernel = instance;
+        if (kernel == null || kernel.currentYear != currentYear) {
+            instance = kernel = new ValidationKernel(currentYear);
+        }
+        return kernel;
+    }
+
+    /**
+     * Writes the correct checksum, the full year and the flags of each candidate in {@code candidates}.
+     */
+    void validate(CharSequence chars, Candidates candidates) {
+        for (int i = 0; i < candidates.size; i++) {
+            int start = candidates.starts[i];
+            int suffix = candidates.suffixes[i];
+            int end = candidates.ends[i];
+            int flags = PersonalIdentityNumberScanner.isDelimited(chars, start, end) ? DELIMITED : 0;
+            if (candidates.isOrganisationNumber(i)) {
+                int checksum = luhn(chars, candidates.months[i], suffix);
+                if (digit(chars, end - 1) == checksum) flags |= CORRECT_CHECKSUM;
+                candidates.checksums[i] = (byte) checksum;
+                candidates.years[i] = 0;
+            } else {
+                int month = candidates.months[i];
+                int separator = candidates.separators[i];
+                int checksum = luhn(chars, separator - 6, suffix);
+                if (end - suffix != 4 || digit(chars, end - 1) == checksum) flags |= CORRECT_CHECKSUM;
+                int dayOfMonth = digit(chars, month + 2) * 10 + digit(chars, month + 3);
+                // Coordination numbers have 60 added to the day of month
+                if (dayOfMonth >= 60) {
+                    flags |= COORDINATION_NUMBER;
+                    dayOfMonth -= 60;
+                }
+                int year = fullYear(chars, start, month, separator, suffix);
+                if (dayOfMonth <= lengthOfMonth(year, digit(chars, month) * 10 + digit(chars, month + 1))) {
+                    flags |= VALID_DAY_OF_MONTH;
+                }
+                candidates.checksums[i] = (byte) checksum;
+                candidates.years[i] = year;
+            }
+            candidates.flags[i] = (byte) flags;
+        }
+    }
+
+    /**
+     * Infers the century of a date without one from the current year and the separator, '+' meaning at least 100 years ago.
+     */
+    int fullYear(CharSequence chars, int start, int month, int separator, int suffix) {
+        int yearInCentury = digit(chars, month - 2) * 10 + digit(chars, month - 1);
+        switch (separator - start) {
+            case 6:
+                return years[yearInCentury] - (suffix > separator && chars.charAt(separator) == '+' ? 100 : 0);
+            case 7:
+                return CENTURIES[digit(chars, start)] + yearInCentury;
+            default:
+                return digit(chars, start) * 1000 + digit(chars, start + 1) * 100 + yearInCentury;
+        }
+    }
+
+    static int lengthOfMonth(int year, int month) {
+        return month == 2 && isLeap(year) ? 29 : DAYS_IN_MONTH[month];
+    }
+
+    private static boolean isLeap(int year) {
+        return (year & 3) == 0 && (year % 100 != 0 || year % 400 == 0);
+    }
+
+    // Adapted under MIT license from "dev.personnummer:personnummer" at
+    // https://github.com/personnummer/java/blob/master/src/main/java/dev/personnummer/Personnummer.java
+    static int luhn(CharSequence chars, int date, int suffix) {
+        // Luhn/mod10 algorithm, doubling every other digit of the six date digits and the three birth number digits
+        int sum = DOUBLED[digit(chars, date)] + digit(chars, date + 1)
+                + DOUBLED[digit(chars, date + 2)] + digit(chars, date + 3)
+                + DOUBLED[digit(chars, date + 4)] + digit(chars, date + 5)
+                + DOUBLED[digit(chars, suffix)] + digit(chars, suffix + 1)
+                + DOUBLED[digit(chars, suffix + 2)];
+        return CHECKSUMS[sum];
+    }
+
+    private static int digit(CharSequence chars, int index) {
+        return chars.charAt(index) - '0';
+    }
+}
@@ -0,0 +1,331 @@
+package com.linuxgods.kreiger.swedish.personalidentitynumbers.model;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * The numbers found in one whitelist file, with their offsets in the file. Personal identity numbers are {@code long}s
+ * of their twelve digits, sorted, so a {@link WhitelistIndex.Builder} can merge the numbers of many files without
+ * sorting them again. Organisation numbers are {@code long}s of their ten digits, in the order they occur.
+ */
+public class WhitelistFileEntries {
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int PADDING = 3;
+    private static final int SHORT_TEXT = 64;
+
+    private final long[] numbers;
+    private final int[] starts;
+    private final byte[] lengths;
+    private final long[] organisationNumbers;
+    private final int[] organisationNumberStarts;
+    private final byte[] organisationNumberLengths;
+
+    public WhitelistFileEntries(long[] numbers, int[] starts, byte[] lengths,
+                                long[] organisationNumbers, int[] organisationNumberStarts, byte[] organisationNumberLengths) {
+        this.numbers = numbers;
+        this.starts = starts;
+        this.lengths = lengths;
+        this.organisationNumbers = organisationNumbers;
+        this.organisationNumberStarts = organisationNumberStarts;
+        this.organisationNumberLengths = organisationNumberLengths;
+    }
+
+    public static WhitelistFileEntries scan(CharSequence chars, PersonalIdentityNumberFormats.Snapshot formats, ScanContext context) {
+        Collector collector = new Collector();
+        formats.scan(chars, context, collector);
+        return collector.toEntries();
+    }
+
+    /**
+     * Scans text streamed from {@code reader} in chunks of whole lines, without having all of it in memory at once.
+     * Line separators are converted to {@code \n}, so the offsets are the same as in a {@code Document} of the text.
+     */
+    public static WhitelistFileEntries scan(Reader reader, PersonalIdentityNumberFormats.Snapshot formats, ScanContext context) throws IOException {
+        return scan(reader, formats, context, BUFFER_SIZE);
+    }
+
+    static WhitelistFileEntries scan(Reader reader, PersonalIdentityNumberFormats.Snapshot formats, ScanContext context, int bufferSize) throws IOException {
+        Collector collector = new Collector();
+        // Line breaks before each chunk after the first, so a chunk is never mistaken for all of the text when
+        // telling whether a match is delimited, see PersonalIdentityNumberScanner.isDelimited
+        char[] buffer = new char[PADDING + bufferSize];
+        Arrays.fill(buffer, 0, PADDING, '\n');
+        int length = PADDING;
+        int offset = 0;
+        boolean carriageReturn = false;
+        boolean end = false;
+        while (!end) {
+            int read = reader.read(buffer, length, buffer.length - length);
+            if (read < 0) {
+                end = true;
+            }
+            for (int i = length, to = length + Math.max(read, 0); i < to; i++) {
+                char c = buffer[i];
+                if (c == '\r') {
+                    buffer[length++] = '\n';
+                } else if (c != '\n' || !carriageReturn) {
+                    buffer[length++] = c;
+                }
+                carriageReturn = c == '\r';
+            }
+            if (!end && length < buffer.length) continue;
+            if (!formats.isLineScannable() && !end) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                continue;
+            }
+            int chunkEnd = end ? length : lastLineEnd(buffer, length);
+            if (chunkEnd == PADDING && !end) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                continue;
+            }
+            int from = offset == 0 && end ? PADDING : 0;
+            collector.offset = offset - PADDING + from;
+            CharSequence chunk = CharBuffer.wrap(buffer, from, chunkEnd - from);
+            if (formats.isLineScannable()) {
+                formats.scanLines(chunk, context, collector);
+            } else {
+                formats.scan(chunk, context, collector);
+            }
+            offset += chunkEnd - PADDING;
+            System.arraycopy(buffer, chunkEnd, buffer, PADDING, length - chunkEnd);
+            length -= chunkEnd - PADDING;
+        }
+        return collector.toEntries();
+    }
+
+    /**
+     * Updates the entries after {@code oldLength} chars at {@code offset} were replaced by {@code newLength} chars,
+     * by only scanning the changed lines of {@code chars}, and moving the entries after them.
+     *
+     * @param chars all of the text after the change
+     */
+    public WhitelistFileEntries update(CharSequence chars, int offset, int oldLength, int newLength,
+                                       PersonalIdentityNumberFormats.Snapshot formats, ScanContext context) {
+        int delta = newLength - oldLength;
+        int length = chars.length();
+        // Whether a match is delimited can depend on the length of a short text, see PersonalIdentityNumberScanner.isDelimited
+        if (!formats.isLineScannable() || Math.min(length, length - delta) < SHORT_TEXT) {
+            return scan(chars, formats, context);
+        }
+        int from = offset;
+        while (from > 0 && chars.charAt(from - 1) != '\n') {
+            from--;
+        }
+        // The line after an inserted line break is changed as well, since what is before a match matters
+        int to = offset + newLength;
+        while (to < length && chars.charAt(to) != '\n') {
+            to++;
+        }
+        if (to < length) {
+            to++;
+        }
+        int oldTo = to - delta;
+        Collector collector = new Collector();
+        for (int i = 0; i < numbers.length; i++) {
+            int start = starts[i];
+            if (start < from) {
+                collector.add(numbers[i], start, lengths[i]);
+            } else if (start >= oldTo) {
+                collector.add(numbers[i], start + delta, lengths[i]);
+            }
+        }
+        int i = 0;
+        for (; i < organisationNumbers.length && organisationNumberStarts[i] < from; i++) {
+            collector.addOrganisationNumber(organisationNumbers[i], organisationNumberStarts[i], organisationNumberLengths[i]);
+        }
+        formats.scanLines(chars, from, to, context, collector);
+        for (; i < organisationNumbers.length; i++) {
+            if (organisationNumberStarts[i] >= oldTo) {
+                collector.addOrganisationNumber(organisationNumbers[i], organisationNumberStarts[i] + delta, organisationNumberLengths[i]);
+            }
+        }
+        return collector.toEntries();
+    }
+
+    private static int lastLineEnd(char[] buffer, int length) {
+        for (int i = length - 1; i >= PADDING; i--) {
+            if (buffer[i] == '\n') return i + 1;
+        }
+        return PADDING;
+    }
+
+    public int size() {
+        return numbers.length;
+    }
+
+    public long getNumber(int i) {
+        return numbers[i];
+    }
+
+    public int getStart(int i) {
+        return starts[i];
+    }
+
+    public int getLength(int i) {
+        return Byte.toUnsignedInt(lengths[i]);
+    }
+
+    public int getOrganisationNumberCount() {
+        return organisationNumbers.length;
+    }
+
+    /**
+     * @return the organisation number with a separator, e.g. 556677-8899
+     */
+    public String getOrganisationNumber(int i) {
+        String digits = String.format("%010d", organisationNumbers[i]);
+        return digits.substring(0, 6) + "-" + digits.substring(6);
+    }
+
+    public int getOrganisationNumberStart(int i) {
+        return organisationNumberStarts[i];
+    }
+
+    public int getOrganisationNumberLength(int i) {
+        return Byte.toUnsignedInt(organisationNumberLengths[i]);
+    }
+
+    /**
+     * Writes the entries in the format read by {@link #read(ByteBuffer)}.
+     */
+    public void write(DataOutput out) throws IOException {
+        write(out, numbers, starts, lengths);
+        write(out, organisationNumbers, organisationNumberStarts, organisationNumberLengths);
+    }
+
+    private static void write(DataOutput out, long[] numbers, int[] starts, byte[] lengths) throws IOException {
+        out.writeInt(numbers.length);
+        for (long number : numbers) {
+            out.writeLong(number);
+        }
+        for (int start : starts) {
+            out.writeInt(start);
+        }
+        out.write(lengths);
+    }
+
+    /**
+     * Reads entries written by {@link #write(DataOutput)}, e.g. from a cache file.
+     */
+    public static WhitelistFileEntries read(ByteBuffer buffer) {
+        int size = buffer.getInt();
+        long[] numbers = new long[size];
+        int[] starts = new int[size];
+        byte[] lengths = new byte[size];
+        read(buffer, numbers, starts, lengths);
+        int organisationNumberCount = buffer.getInt();
+        long[] organisationNumbers = new long[organisationNumberCount];
+        int[] organisationNumberStarts = new int[organisationNumberCount];
+        byte[] organisationNumberLengths = new byte[organisationNumberCount];
+        read(buffer, organisationNumbers, organisationNumberStarts, organisationNumberLengths);
+        return new WhitelistFileEntries(numbers, starts, lengths, organisationNumbers, organisationNumberStarts, organisationNumberLengths);
+    }
+
+    private static void read(ByteBuffer buffer, long[] numbers, int[] starts, byte[] lengths) {
+        buffer.asLongBuffer().get(numbers);
+        buffer.position(buffer.position() + numbers.length * Long.BYTES);
+        buffer.asIntBuffer().get(starts);
+        buffer.position(buffer.position() + starts.length * Integer.BYTES);
+        buffer.get(lengths);
+    }
+
+    private static class Collector implements MatchSink {
+        private long[] numbers = new long[16];
+        private int[] starts = new int[16];
+        private byte[] lengths = new byte[16];
+        private int size;
+        private long[] organisationNumbers = new long[0];
+        private int[] organisationNumberStarts = new int[0];
+        private byte[] organisationNumberLengths = new byte[0];
+        private int organisationNumberCount;
+        // Added to the offsets of matches in a chunk of the text
+        private int offset;
+
+        @Override
+        public boolean accept(PersonalIdentityNumberPatternMatch match) {
+            add(WhitelistIndex.encode(match.getPersonalIdentityNumber().toString()), offset + match.getStartOffset(),
+                    (byte) (match.getEndOffset() - match.getStartOffset()));
+            return true;
+        }
+
+        @Override
+        public boolean acceptOrganisationNumber(OrganisationNumberMatch match) {
+            addOrganisationNumber(Long.parseLong(match.getOrganisationNumber().replace("-", "")), offset + match.getStartOffset(),
+                    (byte) (match.getEndOffset() - match.getStartOffset()));
+            return true;
+        }
+
+        void add(long number, int start, byte length) {
+            if (size == numbers.length) {
+                numbers = Arrays.copyOf(numbers, size * 2);
+                starts = Arrays.copyOf(starts, size * 2);
+                lengths = Arrays.copyOf(lengths, size * 2);
+            }
+            numbers[size] = number;
+            starts[size] = start;
+            lengths[size] = length;
+            size++;
+        }
+
+        void addOrganisationNumber(long number, int start, byte length) {
+            if (organisationNumberCount == organisationNumbers.length) {
+                int capacity = Math.max(16, organisationNumberCount * 2);
+                organisationNumbers = Arrays.copyOf(organisationNumbers, capacity);
+                organisationNumberStarts = Arrays.copyOf(organisationNumberStarts, capacity);
+                organisationNumberLengths = Arrays.copyOf(organisationNumberLengths, capacity);
+            }
+            organisationNumbers[organisationNumberCount] = number;
+            organisationNumberStarts[organisationNumberCount] = start;
+            organisationNumberLengths[organisationNumberCount] = length;
+            organisationNumberCount++;
+        }
+
+        WhitelistFileEntries toEntries() {
+            int[] order = sortedOrder(numbers, starts, size);
+            long[] sortedNumbers = new long[size];
+            int[] sortedStarts = new int[size];
+            byte[] sortedLengths = new byte[size];
+            for (int i = 0; i < size; i++) {
+                sortedNumbers[i] = numbers[order[i]];
+                sortedStarts[i] = starts[order[i]];
+                sortedLengths[i] = lengths[order[i]];
+            }
+            return new WhitelistFileEntries(sortedNumbers, sortedStarts, sortedLengths,
+                    Arrays.copyOf(organisationNumbers, organisationNumberCount),
+                    Arrays.copyOf(organisationNumberStarts, organisationNumberCount),
+                    Arrays.copyOf(organisationNumberLengths, organisationNumberCount));
+        }
+    }
+
+    /**
+     * @return the indexes of the first {@code size} keys in sorted order, and in order of their offsets when equal
+     */
+    private static int[] sortedOrder(long[] keys, int[] offsets, int size) {
+        int[] order = IntStream.range(0, size).toArray();
+        int[] buffer = new int[size];
+        for (int width = 1; width < size; width *= 2) {
+            for (int from = 0; from < size; from += 2 * width) {
+                int middle = Math.min(from + width, size);
+                int to = Math.min(from + 2 * width, size);
+                for (int i = from, left = from, right = middle; i < to; i++) {
+                    buffer[i] = right >= to || left < middle && precedes(keys, offsets, order[left], order[right])
+                            ? order[left++]
+                            : order[right++];
+                }
+            }
+            int[] swap = order;
+            order = buffer;
+            buffer = swap;
+        }
+        return order;
+    }
+
+    private static boolean precedes(long[] keys, int[] offsets, int i, int j) {
+        return keys[i] < keys[j] || keys[i] == keys[j] && offsets[i] <= offsets[j];
+    }
+}
@@ -0,0 +1,529 @@
+package com.linuxgods.kreiger.swedish.personalidentitynumbers.model;
+
+import com.intellij.openapi.util.TextRange;
+import com.intellij.openapi.vfs.VirtualFile;
+
+import java.util.*;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+/**
+ * Immutable whitelist of personal identity numbers, each stored as a {@code long} of its twelve digits in a sorted array,
+ * with the locations of each number in parallel arrays of file ids, start offsets and lengths. A {@link FileRange} is
+ * only created when a location is asked for.
+ * <p>
+ * Coordination numbers are kept apart from other numbers, so the closest whitelisted number of the same kind is a
+ * binary search away.
+ */
+public class WhitelistIndex {
+    public static final WhitelistIndex EMPTY = new Builder().build();
+
+    private static final int DIGITS = 12;
+    // YYMMDDXXXC
+    private static final int DIGITS_WITHOUT_CENTURY = 10;
+    private static final int[] CENTURIES = {18, 19, 20};
+    // The file id of the first location of numbers without locations, e.g. the BundledWhitelist, so that they stay
+    // when the files are edited
+    private static final int NO_FILE = -1;
+
+    private final SortedNumbers numbers;
+    private final SortedNumbers coordinationNumbers;
+    private final Representation representation;
+
+    /**
+     * How the whitelisted numbers are stored. Numbers that do not fit a bitmap, e.g. with incorrect checksums or
+     * birth dates in the future, are stored sorted anyway.
+     */
+    public enum Representation {
+        SORTED("Sorted numbers"),
+        BITMAP("Bitmap of all possible numbers"),
+        COMPRESSED_BITMAP("Compressed bitmap");
+
+        private final String description;
+
+        Representation(String description) {
+            this.description = description;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+
+        @Override public String toString() {
+            return description;
+        }
+    }
+
+    private WhitelistIndex(SortedNumbers numbers, SortedNumbers coordinationNumbers, Representation representation) {
+        this.numbers = numbers;
+        this.coordinationNumbers = coordinationNumbers;
+        this.representation = representation;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static long encode(String personalIdentityNumber) {
+        return Long.parseLong(personalIdentityNumber);
+    }
+
+    public static String decode(long number) {
+        return Long.toString(number);
+    }
+
+    private static boolean isCoordinationNumber(long number) {
+        // The first digit of the day of month, YYYYMMDDXXXC
+        return number / 100_000 % 10 >= 6;
+    }
+
+    public int size() {
+        return numbers.size() + coordinationNumbers.size();
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public boolean contains(PersonalIdentityNumber personalIdentityNumber) {
+        return contains(personalIdentityNumber.toString());
+    }
+
+    public boolean contains(String personalIdentityNumber) {
+        long number = encode(personalIdentityNumber);
+        return of(number).indexOf(number) >= 0;
+    }
+
+    /**
+     * @return the locations of the number in the whitelist files, or an empty list if it is not whitelisted
+     */
+    public List<FileRange> getLocations(String personalIdentityNumber) {
+        long number = encode(personalIdentityNumber);
+        SortedNumbers sortedNumbers = of(number);
+        int i = sortedNumbers.indexOf(number);
+        return i >= 0 ? sortedNumbers.getLocations(i) : List.of();
+    }
+
+    /**
+     * @return the closest lower whitelisted number of the same kind, coordination number or not
+     */
+    public Optional<PersonalIdentityNumber> lower(PersonalIdentityNumber personalIdentityNumber) {
+        long number = encode(personalIdentityNumber.toString());
+        SortedNumbers sortedNumbers = of(number);
+        int i = sortedNumbers.insertionPoint(number) - 1;
+        return i >= 0 ? Optional.of(sortedNumbers.get(i)) : Optional.empty();
+    }
+
+    /**
+     * @return the closest higher whitelisted number of the same kind, coordination number or not
+     */
+    public Optional<PersonalIdentityNumber> higher(PersonalIdentityNumber personalIdentityNumber) {
+        long number = encode(personalIdentityNumber.toString());
+        SortedNumbers sortedNumbers = of(number);
+        int i = sortedNumbers.insertionPoint(number + 1);
+        return i < sortedNumbers.size() ? Optional.of(sortedNumbers.get(i)) : Optional.empty();
+    }
+
+    /**
+     * @return the numbers in only one of this and the {@code other} whitelist, i.e. the numbers added or removed since the
+     * other whitelist, coordination numbers last
+     */
+    public long[] difference(WhitelistIndex other) {
+        return LongStream.concat(
+                difference(numbers.numbers, other.numbers.numbers),
+                difference(coordinationNumbers.numbers, other.coordinationNumbers.numbers)).toArray();
+    }
+
+    private static LongStream difference(NumberSet numbers, NumberSet otherNumbers) {
+        if (numbers == otherNumbers) return LongStream.empty();
+        LongStream.Builder difference = LongStream.builder();
+        int size = numbers.size();
+        int otherSize = otherNumbers.size();
+        int i = 0;
+        int j = 0;
+        long number = size > 0 ? numbers.get(0) : Long.MAX_VALUE;
+        long otherNumber = otherSize > 0 ? otherNumbers.get(0) : Long.MAX_VALUE;
+        while (i < size || j < otherSize) {
+            if (i < size && number <= otherNumber) {
+                if (number == otherNumber) {
+                    otherNumber = ++j < otherSize ? otherNumbers.get(j) : Long.MAX_VALUE;
+                } else {
+                    difference.add(number);
+                }
+                number = ++i < size ? numbers.get(i) : Long.MAX_VALUE;
+            } else {
+                difference.add(otherNumber);
+                otherNumber = ++j < otherSize ? otherNumbers.get(j) : Long.MAX_VALUE;
+            }
+        }
+        return difference.build();
+    }
+
+    /**
+     * Merges the new {@code entries} of {@code file} into the sorted numbers, in place of its previous locations, instead
+     * of sorting the numbers of every file again. The numbers are only stored again if any were added or removed, so
+     * editing a whitelist file without changing its numbers keeps e.g. the bitmaps.
+     *
+     * @return the same index as if built with the new {@code entries} of {@code file}
+     */
+    public WhitelistIndex with(VirtualFile file, WhitelistFileEntries entries) {
+        VirtualFile[] files = numbers.files;
+        int fileId = Arrays.asList(files).indexOf(file);
+        if (fileId < 0) {
+            fileId = files.length;
+            files = Arrays.copyOf(files, fileId + 1);
+            files[fileId] = file;
+        }
+        return new WhitelistIndex(numbers.with(files, fileId, entries, representation, false),
+                coordinationNumbers.with(files, fileId, entries, representation, true), representation);
+    }
+
+    private SortedNumbers of(long number) {
+        return isCoordinationNumber(number) ? coordinationNumbers : numbers;
+    }
+
+    /**
+     * @param prefix digits of the number, with or without century digits
+     * @return the whitelisted numbers starting with {@code prefix}, in order
+     */
+    public Stream<String> startingWith(String prefix) {
+        int length = prefix.length();
+        if (length == 0 || length > DIGITS) return Stream.empty();
+        long digits = Long.parseLong(prefix);
+        LongStream matches = LongStream.concat(numbers.startingWith(digits, DIGITS - length),
+                coordinationNumbers.startingWith(digits, DIGITS - length));
+        if (length <= DIGITS_WITHOUT_CENTURY) {
+            for (int century : CENTURIES) {
+                long withCentury = century * pow10(length) + digits;
+                matches = LongStream.concat(matches, LongStream.concat(
+                        numbers.startingWith(withCentury, DIGITS_WITHOUT_CENTURY - length),
+                        coordinationNumbers.startingWith(withCentury, DIGITS_WITHOUT_CENTURY - length)));
+            }
+        }
+        return matches.sorted().distinct().mapToObj(WhitelistIndex::decode);
+    }
+
+    private static long pow10(int exponent) {
+        long result = 1;
+        for (int i = 0; i < exponent; i++) {
+            result *= 10;
+        }
+        return result;
+    }
+
+    /**
+     * Numbers of one kind, with their locations.
+     */
+    private static class SortedNumbers {
+        private final NumberSet numbers;
+        // The locations of number i are from firstLocations[i] until firstLocations[i + 1]
+        private final int[] firstLocations;
+        private final VirtualFile[] files;
+        // Indexes into files
+        private final int[] fileIds;
+        private final int[] starts;
+        private final byte[] lengths;
+
+        SortedNumbers(NumberSet numbers, int[] firstLocations, VirtualFile[] files, int[] fileIds, int[] starts, byte[] lengths) {
+            this.numbers = numbers;
+            this.firstLocations = firstLocations;
+            this.files = files;
+            this.fileIds = fileIds;
+            this.starts = starts;
+            this.lengths = lengths;
+        }
+
+        int size() {
+            return numbers.size();
+        }
+
+        PersonalIdentityNumber get(int i) {
+            return new PersonalIdentityNumber(decode(numbers.get(i)));
+        }
+
+        int indexOf(long number) {
+            return numbers.indexOf(number);
+        }
+
+        int insertionPoint(long number) {
+            int i = indexOf(number);
+            return i >= 0 ? i : -i - 1;
+        }
+
+        List<FileRange> getLocations(int i) {
+            int end = firstLocations[i + 1];
+            int first = firstLocations[i] < end && fileIds[firstLocations[i]] == NO_FILE ? firstLocations[i] + 1 : firstLocations[i];
+            int size = end - first;
+            return new AbstractList<>() {
+                @Override
+                public FileRange get(int index) {
+                    int location = first + Objects.checkIndex(index, size);
+                    return new FileRange(files[fileIds[location]], TextRange.from(starts[location], Byte.toUnsignedInt(lengths[location])));
+                }
+
+                @Override
+                public int size() {
+                    return size;
+                }
+            };
+        }
+
+        /**
+         * Walks the numbers in order, copying the locations in other files, with the entries of the kind of numbers
+         * inserted where their number is, or would be. Locations stay in the order of their files.
+         */
+        SortedNumbers with(VirtualFile[] files, int fileId, WhitelistFileEntries entries, Representation representation,
+                           boolean coordinationNumbers) {
+            int[] entryIndexes = IntStream.range(0, entries.size())
+                    .filter(i -> isCoordinationNumber(entries.getNumber(i)) == coordinationNumbers)
+                    .toArray();
+            int size = numbers.size();
+            int[] insertionPoints = new int[entryIndexes.length];
+            for (int j = 0; j < entryIndexes.length; j++) {
+                insertionPoints[j] = numbers.indexOf(entries.getNumber(entryIndexes[j]));
+            }
+            int maxCount = size + entryIndexes.length;
+            int maxLocationCount = fileIds.length + entryIndexes.length;
+            // The previous index of each number, or -1 for the added numbers in addedNumbers
+            int[] previousIndexes = new int[maxCount];
+            long[] addedNumbers = new long[maxCount];
+            int[] newFirstLocations = new int[maxCount + 1];
+            int[] newFileIds = new int[maxLocationCount];
+            int[] newStarts = new int[maxLocationCount];
+            byte[] newLengths = new byte[maxLocationCount];
+            boolean changed = false;
+            int count = 0;
+            int locationCount = 0;
+            int j = 0;
+            for (int i = 0; i <= size; i++) {
+                while (j < entryIndexes.length && insertionPoints[j] == -i - 1) {
+                    long number = entries.getNumber(entryIndexes[j]);
+                    newFirstLocations[count] = locationCount;
+                    previousIndexes[count] = -1;
+                    addedNumbers[count++] = number;
+                    for (; j < entryIndexes.length && entries.getNumber(entryIndexes[j]) == number; j++) {
+                        newFileIds[locationCount] = fileId;
+                        newStarts[locationCount] = entries.getStart(entryIndexes[j]);
+                        newLengths[locationCount++] = (byte) entries.getLength(entryIndexes[j]);
+                    }
+                    changed = true;
+                }
+                if (i == size) break;
+                int first = locationCount;
+                int location = firstLocations[i];
+                int end = firstLocations[i + 1];
+                for (; location < end && fileIds[location] < fileId; location++) {
+                    newFileIds[locationCount] = fileIds[location];
+                    newStarts[locationCount] = starts[location];
+                    newLengths[locationCount++] = lengths[location];
+                }
+                for (; j < entryIndexes.length && insertionPoints[j] == i; j++) {
+                    newFileIds[locationCount] = fileId;
+                    newStarts[locationCount] = entries.getStart(entryIndexes[j]);
+                    newLengths[locationCount++] = (byte) entries.getLength(entryIndexes[j]);
+                }
+                for (; location < end; location++) {
+                    if (fileIds[location] == fileId) continue;
+                    newFileIds[locationCount] = fileIds[location];
+                    newStarts[locationCount] = starts[location];
+                    newLengths[locationCount++] = lengths[location];
+                }
+                if (locationCount == first) {
+                    // Only found in the previous entries of the file
+                    changed = true;
+                    continue;
+                }
+                newFirstLocations[count] = first;
+                previousIndexes[count++] = i;
+            }
+            newFirstLocations[count] = locationCount;
+            NumberSet newNumbers = numbers;
+            if (changed) {
+                long[] distinct = new long[count];
+                for (int i = 0; i < count; i++) {
+                    distinct[i] = previousIndexes[i] >= 0 ? numbers.get(previousIndexes[i]) : addedNumbers[i];
+                }
+                newNumbers = NumberSet.of(distinct, representation, coordinationNumbers);
+            }
+            return new SortedNumbers(newNumbers, Arrays.copyOf(newFirstLocations, count + 1), files,
+                    Arrays.copyOf(newFileIds, locationCount),
+                    Arrays.copyOf(newStarts, locationCount),
+                    Arrays.copyOf(newLengths, locationCount));
+        }
+
+        /**
+         * @return the numbers starting with {@code digits}, followed by {@code remaining} digits
+         */
+        LongStream startingWith(long digits, int remaining) {
+            long scale = pow10(remaining);
+            return IntStream.range(insertionPoint(digits * scale), insertionPoint((digits + 1) * scale))
+                    .mapToLong(numbers::get);
+        }
+    }
+
+    public static class Builder {
+        private static final int MAX_LENGTH = 0xFF;
+
+        private final Map<VirtualFile, Integer> fileIdsByFile = new HashMap<>();
+        private final List<VirtualFile> files = new ArrayList<>();
+        private long[] numbers = new long[16];
+        private int[] fileIds = new int[16];
+        private int[] starts = new int[16];
+        private byte[] lengths = new byte[16];
+        private int size;
+        // Where each run of numbers in ascending order starts
+        private int[] runStarts = new int[16];
+        private int runCount;
+        private Representation representation = Representation.SORTED;
+
+        private Builder() {
+        }
+
+        public Builder setRepresentation(Representation representation) {
+            this.representation = representation;
+            return this;
+        }
+
+        /**
+         * @param length at most 255 chars
+         */
+        public Builder add(PersonalIdentityNumber personalIdentityNumber, VirtualFile file, int start, int length) {
+            if (length < 0 || length > MAX_LENGTH) {
+                throw new IllegalArgumentException("Length " + length + " of " + personalIdentityNumber + " is not between 0 and " + MAX_LENGTH);
+            }
+            add(encode(personalIdentityNumber.toString()), fileId(file), start, (byte) length);
+            return this;
+        }
+
+        /**
+         * Adds the personal identity numbers found in {@code file}.
+         */
+        public Builder add(VirtualFile file, WhitelistFileEntries entries) {
+            int fileId = fileId(file);
+            for (int i = 0; i < entries.size(); i++) {
+                add(entries.getNumber(i), fileId, entries.getStart(i), (byte) entries.getLength(i));
+            }
+            return this;
+        }
+
+        /**
+         * Adds numbers without locations, e.g. the {@link BundledWhitelist}.
+         */
+        public Builder addAll(long[] numbers) {
+            for (long number : numbers) {
+                add(number, NO_FILE, 0, (byte) 0);
+            }
+            return this;
+        }
+
+        private int fileId(VirtualFile file) {
+            return fileIdsByFile.computeIfAbsent(file, f -> {
+                files.add(f);
+                return files.size() - 1;
+            });
+        }
+
+        private void add(long number, int fileId, int start, byte length) {
+            if (size == numbers.length) {
+                numbers = Arrays.copyOf(numbers, size * 2);
+                fileIds = Arrays.copyOf(fileIds, size * 2);
+                starts = Arrays.copyOf(starts, size * 2);
+                lengths = Arrays.copyOf(lengths, size * 2);
+            }
+            if (size == 0 || number < numbers[size - 1]) {
+                if (runCount == runStarts.length) {
+                    runStarts = Arrays.copyOf(runStarts, runCount * 2);
+                }
+                runStarts[runCount++] = size;
+            }
+            numbers[size] = number;
+            fileIds[size] = fileId;
+            starts[size] = start;
+            lengths[size] = length;
+            size++;
+        }
+
+        public WhitelistIndex build() {
+            int[] order = sortedOrder();
+            VirtualFile[] files = this.files.toArray(VirtualFile[]::new);
+            return new WhitelistIndex(build(order, files, false), build(order, files, true), representation);
+        }
+
+        private SortedNumbers build(int[] order, VirtualFile[] files, boolean coordinationNumbers) {
+            long[] distinct = new long[order.length];
+            int[] firstLocations = new int[order.length + 1];
+            int[] sortedFileIds = new int[order.length];
+            int[] sortedStarts = new int[order.length];
+            byte[] sortedLengths = new byte[order.length];
+            int count = 0;
+            int locationCount = 0;
+            for (int i : order) {
+                long number = numbers[i];
+                if (isCoordinationNumber(number) != coordinationNumbers) continue;
+                if (count == 0 || distinct[count - 1] != number) {
+                    firstLocations[count] = locationCount;
+                    distinct[count++] = number;
+                }
+                sortedFileIds[locationCount] = fileIds[i];
+                sortedStarts[locationCount] = starts[i];
+                sortedLengths[locationCount] = lengths[i];
+                locationCount++;
+            }
+            firstLocations[count] = locationCount;
+            return new SortedNumbers(NumberSet.of(Arrays.copyOf(distinct, count), representation, coordinationNumbers),
+                    Arrays.copyOf(firstLocations, count + 1), files,
+                    Arrays.copyOf(sortedFileIds, locationCount),
+                    Arrays.copyOf(sortedStarts, locationCount),
+                    Arrays.copyOf(sortedLengths, locationCount));
+        }
+
+        /**
+         * Merges the sorted runs of numbers, e.g. the numbers of each {@link WhitelistFileEntries}, keeping numbers that
+         * are equal in the order they were added.
+         *
+         * @return the indexes of the numbers in sorted order
+         */
+        private int[] sortedOrder() {
+            int[] heads = Arrays.copyOf(runStarts, runCount);
+            int[] ends = new int[runCount];
+            for (int run = 0; run < runCount; run++) {
+                ends[run] = run + 1 < runCount ? runStarts[run + 1] : size;
+            }
+            // A binary heap of the runs, by their first remaining number
+            int[] heap = IntStream.range(0, runCount).toArray();
+            int heapSize = runCount;
+            for (int i = heapSize / 2 - 1; i >= 0; i--) {
+                siftDown(heap, heapSize, i, heads);
+            }
+            int[] order = new int[size];
+            for (int i = 0; i < size; i++) {
+                int run = heap[0];
+                order[i] = heads[run]++;
+                if (heads[run] == ends[run]) {
+                    heap[0] = heap[--heapSize];
+                }
+                siftDown(heap, heapSize, 0, heads);
+            }
+            return order;
+        }
+
+        private void siftDown(int[] heap, int heapSize, int i, int[] heads) {
+            int run = heap[i];
+            while (2 * i + 1 < heapSize) {
+                int child = 2 * i + 1;
+                if (child + 1 < heapSize && precedes(heap[child + 1], heap[child], heads)) child++;
+                if (!precedes(heap[child], run, heads)) break;
+                heap[i] = heap[child];
+                i = child;
+            }
+            heap[i] = run;
+        }
+
+        private boolean precedes(int run, int otherRun, int[] heads) {
+            long number = numbers[heads[run]];
+            long otherNumber = numbers[heads[otherRun]];
+            return number < otherNumber || number == otherNumber && run < otherRun;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.linuxgods.kreiger.swedish.personalidentitynumbers.inspection;
+
+import com.linuxgods.kreiger.swedish.personalidentitynumbers.model.PersonalIdentityNumberFormat;
+import com.linuxgods.kreiger.swedish.personalidentitynumbers.model.PersonalIdentityNumberFormats;
+import com.linuxgods.kreiger.swedish.personalidentitynumbers.model.Requirement;
+import com.linuxgods.kreiger.swedish.personalidentitynumbers.model.ScanContext;
+import com.linuxgods.kreiger.swedish.personalidentitynumbers.model.WhitelistFileEntries;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Checks that cached entries are only read back with the same header they were written with.
+ */
+public class WhitelistIndexCacheTest {
+    private static final String URL = "file:///whitelist.csv";
+    private static final String TEXT = "19800101-1231\n19800161-1238\n556677-8899\n";
+    private static final int YEAR = 2024;
+
+    private Path directory;
+    private WhitelistIndexCache cache;
+    private WhitelistFileEntries entries;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("whitelist-index");
+        cache = new WhitelistIndexCache(directory);
+        PersonalIdentityNumberFormats formats = new PersonalIdentityNumberFormats(
+                List.of(PersonalIdentityNumberFormat.formatWithCentury(Requirement.ALLOWED)));
+        formats.setCoordinationNumber(true);
+        formats.setOrganisationNumber(true);
+        entries = WhitelistFileEntries.scan(TEXT, formats.getSnapshot(), new ScanContext());
+        cache.write(URL, TEXT.length(), hash(1), hash(2), YEAR, entries);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Test
+    public void sameHeaderReadsTheEntries() {
+        assertEquals(3, describe(entries).size());
+        assertEquals(describe(entries), describe(cache.read(URL, TEXT.length(), hash(1), hash(2), YEAR)));
+    }
+
+    @Test
+    public void otherUrlIsNotRead() throws IOException {
+        String url = "file:///other.csv";
+        Files.copy(cache.cacheFile(URL), cache.cacheFile(url), REPLACE_EXISTING);
+        assertNull(cache.read(url, TEXT.length(), hash(1), hash(2), YEAR));
+    }
+
+    @Test
+    public void otherLengthIsNotRead() {
+        assertNull(cache.read(URL, TEXT.length() + 1, hash(1), hash(2), YEAR));
+    }
+
+    @Test
+    public void otherHashIsNotRead() {
+        assertNull(cache.read(URL, TEXT.length(), hash(3), hash(2), YEAR));
+    }
+
+    @Test
+    public void otherYearIsNotRead() {
+        assertNull(cache.read(URL, TEXT.length(), hash(1), hash(2), YEAR + 1));
+    }
+
+    @Test
+    public void otherFormatsHashIsNotRead() {
+        assertNull(cache.read(URL, TEXT.length(), hash(1), hash(3), YEAR));
+    }
+
+    @Test
+    public void truncatedFileIsNotRead() throws IOException {
+        Path cacheFile = cache.cacheFile(URL);
+        byte[] bytes = Files.readAllBytes(cacheFile);
+        Files.write(cacheFile, Arrays.copyOf(bytes, bytes.length - 1));
+        assertNull(cache.read(URL, TEXT.length(), hash(1), hash(2), YEAR));
+    }
+
+    /**
+     * @return a hash as long as a SHA-256 hash
+     */
+    private static byte[] hash(int seed) {
+        byte[] hash = new byte[32];
+        Arrays.fill(hash, (byte) seed);
+        return hash;
+    }
+
+    private static List<String> describe(WhitelistFileEntries entries) {
+        List<String> descriptions = new ArrayList<>();
+        for (int i = 0; i < entries.size(); i++) {
+            descriptions.add(entries.getNumber(i) + "@" + entries.getStart(i) + "+" + entries.getLength(i));
+        }
+        for (int i = 0; i < entries.getOrganisationNumberCount(); i++) {
+            descriptions.add(entries.getOrganisationNumber(i) + "@" + entries.getOrganisationNumberStart(i) + "+"
+                    + entries.getOrganisationNumberLength(i));
+        }
+        return descriptions;
+    }
+}
@@ -0,0 +1,299 @@
+package com.linuxgods.kreiger.swedish.personalidentitynumbers.model;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static java.util.stream.Collectors.toList;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares the scanner with the regular expressions of the formats, on random formats and random text.
+ */
+public class PersonalIdentityNumberScannerTest {
+    private static final String CHARS = "0123456789012345678901234567890123456789-+.<>= ab\n";
+    private static final String DELIMITED_PREFIX = "(?<![-+.<>=])";
+    private static final String DELIMITED_SUFFIX = "(?![-+.<>=])";
+
+    @Test
+    public void scanFindsTheSameMatchesAsPatterns() {
+        Random random = new Random(1);
+        for (int i = 0; i < 500; i++) {
+            PersonalIdentityNumberFormats formats = new PersonalIdentityNumberFormats(randomFormats(random));
+            formats.setCoordinationNumber(random.nextBoolean());
+            for (int j = 0; j < 20; j++) {
+                String text = randomText(random, 1 + random.nextInt(200));
+                assertEquals(formats + " " + text, describe(formats.patternRanges(text).collect(toList())),
+                        describe(formats.ranges(text).collect(toList())));
+            }
+        }
+    }
+
+    @Test
+    public void parallelScanFindsTheSameMatchesAsPatterns() {
+        Random random = new Random(2);
+        String text = randomText(random, PersonalIdentityNumberScanner.PARALLEL_THRESHOLD + 1000);
+        for (int i = 0; i < 3; i++) {
+            PersonalIdentityNumberFormats formats = new PersonalIdentityNumberFormats(randomFormats(random));
+            assertEquals(describe(formats.patternRanges(text).collect(toList())),
+                    describe(formats.ranges(text).collect(toList())));
+        }
+    }
+
+    @Test
+    public void parallelScanPushesOrganisationNumbersInOrderUntilStopped() {
+        Random random = new Random(5);
+        String text = randomText(random, PersonalIdentityNumberScanner.PARALLEL_THRESHOLD + 1000);
+        PersonalIdentityNumberFormats formats = new PersonalIdentityNumberFormats(randomFormats(random));
+        formats.setOrganisationNumber(true);
+        PersonalIdentityNumberFormats.Snapshot snapshot = formats.getSnapshot();
+        List<String> lines = new ArrayList<>();
+        snapshot.scanLines(text, new ScanContext(), describe(lines, Integer.MAX_VALUE));
+        List<String> parallel = new ArrayList<>();
+        snapshot.scan(text, new ScanContext(), describe(parallel, Integer.MAX_VALUE));
+        assertEquals(lines, parallel);
+        List<String> stopped = new ArrayList<>();
+        snapshot.scan(text, new ScanContext(), describe(stopped, 10));
+        assertEquals(lines.subList(0, 10), stopped);
+    }
+
+    @Test
+    public void vectorPrefilterFindsTheSameRuns() {
+        DigitRunPrefilter vector = DigitRunPrefilter.createVector();
+        Assume.assumeNotNull(vector);
+        DigitRunPrefilter prefilter = new DigitRunPrefilter();
+        Random random = new Random(3);
+        for (int i = 0; i < 10_000; i++) {
+            String text = randomText(random, 1 + random.nextInt(300));
+            int from = random.nextInt(text.length());
+            int to = from + random.nextInt(text.length() - from + 1);
+            int runStart = from;
+            while (runStart > 0 && PersonalIdentityNumberScanner.isDigit(text.charAt(runStart - 1))) {
+                runStart--;
+            }
+            int minRun = 6 + random.nextInt(4);
+            assertEquals(text + " " + from + " " + to, prefilter.nextRun(text, from, to, runStart, minRun),
+                    vector.nextRun(text, from, to, runStart, minRun));
+        }
+    }
+
+    @Test
+    public void scanWithVectorPrefilterFindsTheSameMatchesAsPatterns() {
+        DigitRunPrefilter vector = DigitRunPrefilter.createVector();
+        Assume.assumeNotNull(vector);
+        Random random = new Random(4);
+        for (int i = 0; i < 200; i++) {
+            List<PersonalIdentityNumberFormat> formatList = randomFormats(random);
+            boolean coordinationNumber = random.nextBoolean();
+            PersonalIdentityNumberFormats formats = new PersonalIdentityNumberFormats(formatList);
+            formats.setCoordinationNumber(coordinationNumber);
+            PersonalIdentityNumberScanner scanner = new PersonalIdentityNumberScanner(formatList, coordinationNumber, false, vector);
+            for (int j = 0; j < 20; j++) {
+                String text = randomText(random, 1 + random.nextInt(2000));
+                List<PersonalIdentityNumberPatternMatch> matches = new ArrayList<>();
+                scanner.scan(text, new ScanContext(), matches::add);
+                assertEquals(formats + " " + text, describe(formats.patternRanges(text).collect(toList())), describe(matches));
+            }
+        }
+    }
+
+    @Test
+    public void recordsAreMatchedAtTheirColumns() {
+        Random random = new Random(5);
+        for (int i = 0; i < 300; i++) {
+            int recordLength = 12 + random.nextInt(40);
+            List<PersonalIdentityNumberFormat> formatList = new ArrayList<>();
+            for (int f = 1 + random.nextInt(3); f > 0; f--) {
+                List<Integer> columns = new ArrayList<>();
+                for (int c = 1 + random.nextInt(3); c > 0; c--) {
+                    columns.add(random.nextInt(recordLength));
+                }
+                formatList.add(randomFormat(random).setRecordLength(recordLength).setColumns(columns));
+            }
+            PersonalIdentityNumberFormats formats = new PersonalIdentityNumberFormats(formatList);
+            formats.setCoordinationNumber(random.nextBoolean());
+            for (int j = 0; j < 20; j++) {
+                String text = randomRecords(random, recordLength, 3 + random.nextInt(20));
+                assertEquals(formats + " " + text, recordPatternRanges(formats, recordLength, text),
+                        describe(formats.ranges(text).collect(toList())));
+            }
+        }
+    }
+
+    @Test
+    public void singleLineOfRecordLengthIsFreeText() {
+        PersonalIdentityNumberFormats formats = new PersonalIdentityNumberFormats(List.of(
+                PersonalIdentityNumberFormat.formatWithCentury(Requirement.REQUIRED),
+                new PersonalIdentityNumberFormat().setRecordLength(20).setColumns(List.of(0))));
+        assertEquals(List.of("(4,16) #0"), ranges(formats, "id: 198001011231 ok."));
+        assertEquals(List.of("(4,16) #0", "(24,36) #0"), ranges(formats, "id: 198001011231 ok.id: 198001011231 ok."));
+    }
+
+    @Test
+    public void recordsAreAlsoMatchedByFreeTextFormats() {
+        PersonalIdentityNumberFormats formats = new PersonalIdentityNumberFormats(List.of(
+                new PersonalIdentityNumberFormat().setRecordLength(20).setColumns(List.of(0)),
+                PersonalIdentityNumberFormat.formatWithCentury(Requirement.REQUIRED)));
+        String records = "198001011231 abcdefg\r\n"
+                + "name 198001011231 ab\r\n"
+                + "8001011231 name     \r\n";
+        assertEquals(List.of("(0,12) #0", "(27,39) #1", "(44,54) #0"), ranges(formats, records));
+        // Lines of other lengths are not records
+        assertEquals(List.of("(5,17) #1"), ranges(formats, "name 198001011231 ab\n8001011231 name\n"));
+    }
+
+    private static List<String> ranges(PersonalIdentityNumberFormats formats, String text) {
+        return formats.ranges(text).map(match -> match.getTextRange() + " #" + match.getMatchedPatternIndex()).collect(toList());
+    }
+
+    /**
+     * Reference for records, matching the regular expression of each format at the columns of each record, with the
+     * region of the record as the bounds.
+     */
+    private static List<String> recordPatternRanges(PersonalIdentityNumberFormats formats, int recordLength, String text) {
+        List<PersonalIdentityNumberFormat> formatList = formats.getFormats();
+        SortedMap<Integer, List<Integer>> formatIndexesByColumn = new TreeMap<>();
+        List<Pattern> patterns = new ArrayList<>();
+        for (int i = 0; i < formatList.size(); i++) {
+            PersonalIdentityNumberFormat format = formatList.get(i);
+            for (int column : format.getColumns()) {
+                formatIndexesByColumn.computeIfAbsent(column, c -> new ArrayList<>()).add(i);
+            }
+            String delimited = format.copy().setSurroundingDigitsAllowed(true).buildString();
+            patterns.add(Pattern.compile(delimited.substring(DELIMITED_PREFIX.length(), delimited.length() - DELIMITED_SUFFIX.length())));
+        }
+        ScanContext context = new ScanContext();
+        List<String> matches = new ArrayList<>();
+        for (int recordStart = 0; recordStart + recordLength <= text.length(); recordStart += recordLength + 1) {
+            int matchEnd = 0;
+            for (Map.Entry<Integer, List<Integer>> column : formatIndexesByColumn.entrySet()) {
+                if (column.getKey() < matchEnd) continue;
+                for (int i : column.getValue()) {
+                    Matcher matcher = patterns.get(i).matcher(text).region(recordStart + column.getKey(), recordStart + recordLength);
+                    if (!matcher.lookingAt()) continue;
+                    PersonalIdentityNumberPatternMatch match = PersonalIdentityNumberPatternMatch.of(text, context, matcher);
+                    if (formatList.get(i).getPredicate().test(match) && formats.getPredicate().test(match)) {
+                        matches.add(describe(match, i));
+                    }
+                    matchEnd = matcher.end() - recordStart;
+                    break;
+                }
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * @return a sink that adds descriptions of the matches of both kinds to {@code descriptions}, until it has {@code max}
+     */
+    private static MatchSink describe(List<String> descriptions, int max) {
+        return new MatchSink() {
+            @Override
+            public boolean accept(PersonalIdentityNumberPatternMatch match) {
+                descriptions.add(match.getTextRange() + " " + match.getPersonalIdentityNumber());
+                return descriptions.size() < max;
+            }
+
+            @Override
+            public boolean acceptOrganisationNumber(OrganisationNumberMatch match) {
+                descriptions.add(match.getTextRange() + " " + match.getOrganisationNumber());
+                return descriptions.size() < max;
+            }
+        };
+    }
+
+    static List<String> describe(List<PersonalIdentityNumberPatternMatch> matches) {
+        return matches.stream().map(match -> describe(match, match.getMatchedPatternIndex())).collect(toList());
+    }
+
+    private static String describe(PersonalIdentityNumberPatternMatch match, int formatIndex) {
+        return match.getTextRange() + " #" + formatIndex + " " + match.getPersonalIdentityNumber() + " "
+                + match.getCorrectChecksum() + " " + match.hasValidDayOfMonth();
+    }
+
+    static List<PersonalIdentityNumberFormat> randomFormats(Random random) {
+        List<PersonalIdentityNumberFormat> formats = new ArrayList<>();
+        for (int i = 1 + random.nextInt(3); i > 0; i--) {
+            formats.add(randomFormat(random));
+        }
+        return formats;
+    }
+
+    static PersonalIdentityNumberFormat randomFormat(Random random) {
+        Requirement[] requirements = Requirement.values();
+        return new PersonalIdentityNumberFormat()
+                .setMillennium(requirements[random.nextInt(requirements.length)])
+                .setCentury(requirements[random.nextInt(requirements.length)])
+                .setSeparator(requirements[random.nextInt(requirements.length)])
+                .setChecksumDigit(requirements[random.nextInt(requirements.length)])
+                .setInvalidChecksumAllowed(random.nextBoolean())
+                .setSurroundingDigitsAllowed(random.nextBoolean());
+    }
+
+    /**
+     * @return random chars and numbers that look like personal identity numbers, most of them with a correct checksum
+     */
+    static String randomText(Random random, int length) {
+        StringBuilder text = new StringBuilder(length + 16);
+        while (text.length() < length) {
+            if (random.nextInt(4) == 0) {
+                appendNumber(random, text);
+            } else {
+                text.append(CHARS.charAt(random.nextInt(CHARS.length())));
+            }
+        }
+        return text.toString();
+    }
+
+    /**
+     * @return lines of exactly {@code recordLength} chars, with numbers at random offsets
+     */
+    static String randomRecords(Random random, int recordLength, int records) {
+        StringBuilder text = new StringBuilder();
+        for (int r = 0; r < records; r++) {
+            StringBuilder record = new StringBuilder(randomText(random, recordLength).replace('\n', ' '));
+            for (int n = random.nextInt(3); n > 0; n--) {
+                StringBuilder number = new StringBuilder();
+                appendNumber(random, number);
+                int offset = random.nextInt(recordLength);
+                record.replace(offset, Math.min(recordLength, offset + number.length()), number.toString());
+            }
+            record.setLength(recordLength);
+            text.append(record);
+            if (r < records - 1 || random.nextBoolean()) {
+                text.append('\n');
+            }
+        }
+        return text.toString();
+    }
+
+    private static void appendNumber(Random random, StringBuilder text) {
+        int year = 1830 + random.nextInt(200);
+        int month = random.nextInt(13);
+        int day = 1 + random.nextInt(31) + (random.nextInt(4) == 0 ? 60 : 0);
+        String digits = String.format("%02d%02d%02d%03d", year % 100, month, day, random.nextInt(1000));
+        if (random.nextBoolean()) {
+            text.append(year / 100);
+        }
+        text.append(digits, 0, 6);
+        if (random.nextBoolean()) {
+            text.append(random.nextBoolean() ? '-' : '+');
+        }
+        text.append(digits, 6, 9);
+        if (random.nextInt(4) > 0) {
+            text.append(random.nextInt(4) > 0 ? checksum(digits) : random.nextInt(10));
+        }
+    }
+
+    static int checksum(String digits) {
+        int sum = 0;
+        for (int i = 0; i < digits.length(); i++) {
+            int digit = (digits.charAt(i) - '0') * (i % 2 == 0 ? 2 : 1);
+            sum += digit / 10 + digit % 10;
+        }
+        return (10 - sum % 10) % 10;
+    }
+}
@@ -0,0 +1,107 @@
+package com.linuxgods.kreiger.swedish.personalidentitynumbers.model;
+
+import org.junit.Test;
+
+import java.time.YearMonth;
+import java.util.List;
+import java.util.Random;
+
+import static java.util.stream.Collectors.toList;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares the lookup tables of the validation kernel with the checks they replaced.
+ */
+public class ValidationKernelTest {
+    private static final int[] CURRENT_YEARS = {1999, 2000, 2001, 2024, 2099, 2100};
+
+    @Test
+    public void luhnIsTheSameAsDigitByDigit() {
+        Random random = new Random(1);
+        for (int i = 0; i < 100_000; i++) {
+            String digits = String.format("%09d", random.nextInt(1_000_000_000));
+            String separator = List.of("", "-", "+").get(random.nextInt(3));
+            String text = digits.substring(0, 6) + separator + digits.substring(6) + "0";
+            assertEquals(text, luhn(digits), ValidationKernel.luhn(text, 0, 6 + separator.length()));
+        }
+    }
+
+    @Test
+    public void lengthOfMonthIsTheSameAsYearMonth() {
+        for (int year = 1800; year <= 2100; year++) {
+            for (int month = 1; month <= 12; month++) {
+                assertEquals(year + "-" + month, YearMonth.of(year, month).lengthOfMonth(), ValidationKernel.lengthOfMonth(year, month));
+            }
+        }
+        assertEquals(28, ValidationKernel.lengthOfMonth(1900, 2));
+        assertEquals(29, ValidationKernel.lengthOfMonth(2000, 2));
+    }
+
+    @Test
+    public void fullYearIsTheSameAsAddingCenturyDigits() {
+        for (int currentYear : CURRENT_YEARS) {
+            ValidationKernel kernel = ValidationKernel.getInstance(currentYear);
+            for (int yearInCentury = 0; yearInCentury < 100; yearInCentury++) {
+                String date = String.format("%02d0101", yearInCentury);
+                for (String separator : List.of("", "-", "+")) {
+                    String text = date + separator + "1234";
+                    int expected = Integer.parseInt(getCenturyDigits(date, separator, currentYear) + date.substring(0, 2));
+                    assertEquals(text + " in " + currentYear, expected, kernel.fullYear(text, 0, 2, 6, 6 + separator.length()));
+                }
+                for (String centuryDigit : List.of("8", "9", "0")) {
+                    String text = centuryDigit + date + "1234";
+                    int expected = Integer.parseInt(getMillenniumDigit(text) + text.substring(0, 3));
+                    assertEquals(text + " in " + currentYear, expected, kernel.fullYear(text, 0, 3, 7, 7));
+                }
+                for (String century : List.of("18", "19", "20")) {
+                    String text = century + date + "-1234";
+                    assertEquals(text + " in " + currentYear, Integer.parseInt(text.substring(0, 4)), kernel.fullYear(text, 0, 4, 8, 9));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void daysOfMonthOfCoordinationNumbersAndLeapYears() {
+        PersonalIdentityNumberFormats formats = new PersonalIdentityNumberFormats(List.of(
+                PersonalIdentityNumberFormat.formatWithCentury(Requirement.REQUIRED).setInvalidChecksumAllowed(true)));
+        formats.setCoordinationNumber(true);
+        assertEquals(List.of(false, true, false, true, true, false),
+                formats.ranges("19000229-1234 20000229-1234 19000289-1234 20000289-1234 19040289-1234 19010289-1234")
+                        .map(PersonalIdentityNumberPatternMatch::hasValidDayOfMonth)
+                        .collect(toList()));
+    }
+
+    // The checks replaced by the kernel
+
+    private static int luhn(String value) {
+        int sum = 0;
+        for (int i = 0; i < value.length(); i++) {
+            int temp = Character.getNumericValue(value.charAt(i));
+            temp *= 2 - (i % 2);
+            if (temp > 9)
+                temp -= 9;
+            sum += temp;
+        }
+        return (10 - (sum % 10)) % 10;
+    }
+
+    private static String getMillenniumDigit(String date) {
+        switch (date.charAt(0)) {
+            case '8':
+            case '9':
+                return "1";
+            case '0':
+                return "2";
+            default:
+                throw new IllegalArgumentException("Invalid date " + date);
+        }
+    }
+
+    private static String getCenturyDigits(String date, String separator, int currentYear) {
+        int yearInCentury = Integer.parseInt(date.substring(0, 2));
+        int century = (currentYear - yearInCentury) / 100;
+        if ("+".equals(separator)) century -= 1;
+        return "" + century;
+    }
+}
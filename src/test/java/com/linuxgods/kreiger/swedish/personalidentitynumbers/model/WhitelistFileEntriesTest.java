@@ -0,0 +1,121 @@
+package com.linuxgods.kreiger.swedish.personalidentitynumbers.model;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static com.linuxgods.kreiger.swedish.personalidentitynumbers.model.PersonalIdentityNumberScannerTest.*;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares whitelist files streamed in small chunks, or edited, with the same text scanned all at once, like in a document,
+ * and entries read back with the entries written.
+ */
+public class WhitelistFileEntriesTest {
+
+    @Test
+    public void streamedScanFindsTheSameEntriesAsDocumentScan() throws IOException {
+        Random random = new Random(1);
+        for (int i = 0; i < 300; i++) {
+            PersonalIdentityNumberFormats formats = new PersonalIdentityNumberFormats(randomFormats(random));
+            formats.setCoordinationNumber(random.nextBoolean());
+            formats.setOrganisationNumber(random.nextBoolean());
+            for (int j = 0; j < 10; j++) {
+                assertSameEntries(random, formats.getSnapshot(), randomText(random, 1 + random.nextInt(2000)));
+            }
+        }
+    }
+
+    @Test
+    public void streamedRecordsFindTheSameEntriesAsDocumentScan() throws IOException {
+        Random random = new Random(2);
+        for (int i = 0; i < 100; i++) {
+            int recordLength = 12 + random.nextInt(40);
+            List<PersonalIdentityNumberFormat> formatList = new ArrayList<>();
+            formatList.add(randomFormat(random).setRecordLength(recordLength).setColumns(List.of(random.nextInt(recordLength))));
+            PersonalIdentityNumberFormats formats = new PersonalIdentityNumberFormats(formatList);
+            for (int j = 0; j < 10; j++) {
+                assertSameEntries(random, formats.getSnapshot(), randomRecords(random, recordLength, 3 + random.nextInt(50)));
+            }
+        }
+    }
+
+    @Test
+    public void updatedEntriesAreTheSameAsScanningTheEditedText() {
+        Random random = new Random(3);
+        for (int i = 0; i < 300; i++) {
+            List<PersonalIdentityNumberFormat> formatList = randomFormats(random);
+            int recordLength = 12 + random.nextInt(40);
+            if (random.nextInt(4) == 0) {
+                // Records are not scanned line by line
+                formatList.add(randomFormat(random).setRecordLength(recordLength).setColumns(List.of(random.nextInt(recordLength))));
+            }
+            PersonalIdentityNumberFormats formats = new PersonalIdentityNumberFormats(formatList);
+            formats.setCoordinationNumber(random.nextBoolean());
+            formats.setOrganisationNumber(random.nextBoolean());
+            PersonalIdentityNumberFormats.Snapshot snapshot = formats.getSnapshot();
+            // Some texts are shorter than what is scanned line by line
+            String text = random.nextBoolean() ? randomText(random, random.nextInt(100)) : randomRecords(random, recordLength, 1 + random.nextInt(50));
+            WhitelistFileEntries entries = WhitelistFileEntries.scan(text, snapshot, new ScanContext());
+            for (int j = 0; j < 20; j++) {
+                int offset = random.nextInt(text.length() + 1);
+                int oldLength = random.nextInt(Math.min(text.length() - offset, 40) + 1);
+                String inserted = random.nextInt(4) == 0 ? "\n" : randomText(random, random.nextInt(40));
+                String edited = text.substring(0, offset) + inserted + text.substring(offset + oldLength);
+                entries = entries.update(edited, offset, oldLength, inserted.length(), snapshot, new ScanContext());
+                assertEquals(formats.getFormats() + " " + offset + " " + oldLength + " " + inserted + " " + edited,
+                        describe(WhitelistFileEntries.scan(edited, snapshot, new ScanContext())), describe(entries));
+                text = edited;
+            }
+        }
+    }
+
+    @Test
+    public void writtenEntriesAreReadTheSame() throws IOException {
+        Random random = new Random(4);
+        for (int i = 0; i < 100; i++) {
+            PersonalIdentityNumberFormats formats = new PersonalIdentityNumberFormats(randomFormats(random));
+            formats.setCoordinationNumber(random.nextBoolean());
+            // Every other text has organisation numbers, and some have no entries at all
+            formats.setOrganisationNumber(i % 2 == 0);
+            String text = i % 10 == 0 ? "no numbers" : randomText(random, 1 + random.nextInt(2000)) + " 556677-8899";
+            WhitelistFileEntries entries = WhitelistFileEntries.scan(text, formats.getSnapshot(), new ScanContext());
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            entries.write(new DataOutputStream(bytes));
+            ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+            assertEquals(text, describe(entries), describe(WhitelistFileEntries.read(buffer)));
+            assertEquals(0, buffer.remaining());
+        }
+    }
+
+    /**
+     * Streams {@code text} with random line separators, and scans it with {@code \n} line separators.
+     */
+    private static void assertSameEntries(Random random, PersonalIdentityNumberFormats.Snapshot formats, String text) throws IOException {
+        String separator = new String[]{"\n", "\r\n", "\r"}[random.nextInt(3)];
+        int bufferSize = 1 + random.nextInt(64);
+        WhitelistFileEntries streamed = WhitelistFileEntries.scan(new StringReader(text.replace("\n", separator)), formats,
+                new ScanContext(), bufferSize);
+        WhitelistFileEntries scanned = WhitelistFileEntries.scan(text, formats, new ScanContext());
+        assertEquals(formats.getFormats() + " " + bufferSize + " " + text, describe(scanned), describe(streamed));
+    }
+
+    private static List<String> describe(WhitelistFileEntries entries) {
+        List<String> descriptions = new ArrayList<>();
+        for (int i = 0; i < entries.size(); i++) {
+            descriptions.add(entries.getNumber(i) + "@" + entries.getStart(i) + "+" + entries.getLength(i));
+        }
+        for (int i = 0; i < entries.getOrganisationNumberCount(); i++) {
+            descriptions.add(entries.getOrganisationNumber(i) + "@" + entries.getOrganisationNumberStart(i) + "+"
+                    + entries.getOrganisationNumberLength(i));
+        }
+        return descriptions;
+    }
+}
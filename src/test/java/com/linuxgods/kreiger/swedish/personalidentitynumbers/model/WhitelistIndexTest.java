@@ -0,0 +1,220 @@
+package com.linuxgods.kreiger.swedish.personalidentitynumbers.model;
+
+import com.intellij.openapi.util.TextRange;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.testFramework.LightVirtualFile;
+import org.junit.Test;
+
+import java.util.*;
+
+import static java.util.stream.Collectors.toCollection;
+import static java.util.stream.Collectors.toList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+
+/**
+ * Compares whitelist indexes with sorted maps of the same numbers, and indexes with the entries of an edited whitelist
+ * file merged into them with indexes built again from all files.
+ */
+public class WhitelistIndexTest {
+
+    @Test
+    public void indexFindsTheSameNumbersAsSortedMap() {
+        Random random = new Random(1);
+        VirtualFile[] files = {new LightVirtualFile("whitelist0"), new LightVirtualFile("whitelist1")};
+        for (WhitelistIndex.Representation representation : WhitelistIndex.Representation.values()) {
+            for (int i = 0; i < 100; i++) {
+                // Every other whitelist fits a bitmap
+                List<String> numbers = randomNumbers(random, 1 + random.nextInt(50), i % 2 == 0);
+                TreeMap<String, List<String>> expected = new TreeMap<>();
+                WhitelistIndex.Builder builder = WhitelistIndex.builder().setRepresentation(representation);
+                for (int j = random.nextInt(100); j > 0; j--) {
+                    String number = numbers.get(random.nextInt(numbers.size()));
+                    VirtualFile file = files[random.nextInt(files.length)];
+                    TextRange range = TextRange.from(random.nextInt(1000), random.nextInt(256));
+                    builder.add(new PersonalIdentityNumber(number), file, range.getStartOffset(), range.getLength());
+                    expected.computeIfAbsent(number, n -> new ArrayList<>()).add(describe(new FileRange(file, range)));
+                }
+                assertSameNumbers(expected, builder.build(), numbers);
+            }
+        }
+    }
+
+    @Test
+    public void fileEntriesAreMergedInTheOrderOfTheFiles() {
+        Random random = new Random(2);
+        PersonalIdentityNumberFormats.Snapshot formats = whitelistFormats();
+        for (WhitelistIndex.Representation representation : WhitelistIndex.Representation.values()) {
+            for (int i = 0; i < 50; i++) {
+                // Numbers that do not fit bitmaps are not all found when scanning
+                List<String> numbers = randomNumbers(random, 1 + random.nextInt(30), true);
+                TreeMap<String, List<String>> expected = new TreeMap<>();
+                WhitelistIndex.Builder builder = WhitelistIndex.builder().setRepresentation(representation);
+                for (int f = random.nextInt(5); f >= 0; f--) {
+                    VirtualFile file = new LightVirtualFile("whitelist" + f);
+                    StringBuilder text = new StringBuilder();
+                    for (int j = random.nextInt(20); j > 0; j--) {
+                        String number = numbers.get(random.nextInt(numbers.size()));
+                        TextRange range = TextRange.from(text.length(), number.length());
+                        expected.computeIfAbsent(number, n -> new ArrayList<>()).add(describe(new FileRange(file, range)));
+                        text.append(number).append(random.nextBoolean() ? "\n" : " name\n");
+                    }
+                    builder.add(file, WhitelistFileEntries.scan(text, formats, new ScanContext()));
+                }
+                assertSameNumbers(expected, builder.build(), numbers);
+            }
+        }
+    }
+
+    @Test
+    public void editedFileGivesTheSameIndexAsBuildingAgain() {
+        Random random = new Random(1);
+        PersonalIdentityNumberFormats.Snapshot formats = whitelistFormats();
+        for (WhitelistIndex.Representation representation : WhitelistIndex.Representation.values()) {
+            for (int i = 0; i < 20; i++) {
+                List<String> numbers = randomWhitelistNumbers(random, 1 + random.nextInt(30));
+                Map<VirtualFile, WhitelistFileEntries> filesEntries = new LinkedHashMap<>();
+                for (int f = random.nextInt(4); f >= 0; f--) {
+                    filesEntries.put(new LightVirtualFile("whitelist" + filesEntries.size()), randomEntries(random, formats, numbers));
+                }
+                WhitelistIndex index = build(filesEntries, representation);
+                for (int j = 0; j < 10; j++) {
+                    List<VirtualFile> files = new ArrayList<>(filesEntries.keySet());
+                    VirtualFile file = random.nextInt(5) == 0
+                            ? new LightVirtualFile("whitelist" + files.size())
+                            : files.get(random.nextInt(files.size()));
+                    WhitelistFileEntries entries = randomEntries(random, formats, numbers);
+                    filesEntries.put(file, entries);
+                    WhitelistIndex edited = index.with(file, entries);
+                    WhitelistIndex built = build(filesEntries, representation);
+                    assertEquals(representation + " " + filesEntries.keySet(), describe(built), describe(edited));
+                    index = edited;
+                }
+            }
+        }
+    }
+
+    @Test
+    public void movedNumbersKeepTheNumbers() {
+        PersonalIdentityNumberFormats.Snapshot formats = whitelistFormats();
+        VirtualFile file = new LightVirtualFile("whitelist");
+        WhitelistIndex index = WhitelistIndex.builder().setRepresentation(WhitelistIndex.Representation.BITMAP)
+                .add(file, WhitelistFileEntries.scan("19800101-1231\n19800161-1239\n", formats, new ScanContext()))
+                .build();
+        WhitelistIndex edited = index.with(file, WhitelistFileEntries.scan("# Moved\n19800101-1231\n19800161-1239\n", formats, new ScanContext()));
+        assertEquals(0, edited.difference(index).length);
+        assertEquals("(8,21)", edited.getLocations("198001011231").get(0).getTextRange().toString());
+    }
+
+    @Test
+    public void numbersWithoutLocationsStayWhenFilesAreEdited() {
+        PersonalIdentityNumberFormats.Snapshot formats = whitelistFormats();
+        VirtualFile file = new LightVirtualFile("whitelist");
+        WhitelistIndex index = WhitelistIndex.builder()
+                .addAll(new long[]{198001011231L, 198001611239L})
+                .add(file, WhitelistFileEntries.scan("19800101-1231\n19900101-1239\n", formats, new ScanContext()))
+                .build();
+        assertEquals(List.of("whitelist(0,13)"), index.getLocations("198001011231").stream().map(WhitelistIndexTest::describe).collect(toList()));
+        WhitelistIndex edited = index.with(file, WhitelistFileEntries.scan("", formats, new ScanContext()));
+        assertEquals(List.of("198001011231", "198001611239"), edited.startingWith("19").collect(toList()));
+        assertEquals(List.of(), edited.getLocations("198001011231"));
+    }
+
+    @Test
+    public void longerLocationsAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> WhitelistIndex.builder()
+                .add(new PersonalIdentityNumber("198001011231"), new LightVirtualFile("whitelist"), 0, 256));
+    }
+
+    /**
+     * @param numbers the numbers to look up, whitelisted or not
+     */
+    private static void assertSameNumbers(TreeMap<String, List<String>> expected, WhitelistIndex index, List<String> numbers) {
+        assertEquals(expected.size(), index.size());
+        for (String number : numbers) {
+            assertEquals(number, expected.containsKey(number), index.contains(number));
+            assertEquals(number, expected.getOrDefault(number, List.of()),
+                    index.getLocations(number).stream().map(WhitelistIndexTest::describe).collect(toList()));
+            PersonalIdentityNumber personalIdentityNumber = new PersonalIdentityNumber(number);
+            NavigableSet<String> sameKind = expected.navigableKeySet().stream()
+                    .filter(n -> PersonalIdentityNumber.isCoordinationNumber(n) == personalIdentityNumber.isCoordinationNumber())
+                    .collect(toCollection(TreeSet::new));
+            assertEquals(number, Optional.ofNullable(sameKind.lower(number)), index.lower(personalIdentityNumber).map(Object::toString));
+            assertEquals(number, Optional.ofNullable(sameKind.higher(number)), index.higher(personalIdentityNumber).map(Object::toString));
+            for (String prefix : List.of(number.substring(0, 4), number.substring(0, 8), number, number.substring(2, 6), number.substring(2))) {
+                assertEquals(prefix, expected.keySet().stream()
+                                .filter(n -> n.startsWith(prefix) || prefix.length() <= 10 && n.substring(2).startsWith(prefix))
+                                .collect(toList()),
+                        index.startingWith(prefix).collect(toList()));
+            }
+        }
+    }
+
+    private static WhitelistIndex build(Map<VirtualFile, WhitelistFileEntries> filesEntries, WhitelistIndex.Representation representation) {
+        WhitelistIndex.Builder builder = WhitelistIndex.builder().setRepresentation(representation);
+        filesEntries.forEach(builder::add);
+        return builder.build();
+    }
+
+    private static List<String> describe(WhitelistIndex index) {
+        List<String> descriptions = new ArrayList<>();
+        for (long number : index.difference(WhitelistIndex.EMPTY)) {
+            String personalIdentityNumber = WhitelistIndex.decode(number);
+            for (FileRange location : index.getLocations(personalIdentityNumber)) {
+                descriptions.add(personalIdentityNumber + "@" + location.getFile().getName() + location.getTextRange());
+            }
+        }
+        return descriptions;
+    }
+
+    private static PersonalIdentityNumberFormats.Snapshot whitelistFormats() {
+        PersonalIdentityNumberFormats formats = new PersonalIdentityNumberFormats(
+                List.of(PersonalIdentityNumberFormat.formatWithCentury(Requirement.ALLOWED).setInvalidChecksumAllowed(true)));
+        formats.setCoordinationNumber(true);
+        return formats.getSnapshot();
+    }
+
+    private static String describe(FileRange location) {
+        return location.getFile().getName() + location.getTextRange();
+    }
+
+    /**
+     * @param fitBitmaps whether all numbers are born from 1900 until 2019 with a correct checksum, or else some of
+     * them are born in the future or before bitmaps begin, or have an incorrect checksum
+     * @return numbers of twelve digits, some of them coordination numbers
+     */
+    static List<String> randomNumbers(Random random, int count, boolean fitBitmaps) {
+        List<String> numbers = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            int year = fitBitmaps ? 1900 + random.nextInt(120) : 1800 + random.nextInt(300);
+            String digits = String.format("%02d%02d%02d%03d", year % 100, 1 + random.nextInt(12),
+                    1 + random.nextInt(28) + (random.nextInt(4) == 0 ? 60 : 0), random.nextInt(1000));
+            int checksum = fitBitmaps || random.nextInt(4) > 0 ? PersonalIdentityNumberScannerTest.checksum(digits) : random.nextInt(10);
+            numbers.add(year / 100 + digits + checksum);
+        }
+        return numbers;
+    }
+
+    /**
+     * @return numbers with and without separator, some of them coordination numbers or with an incorrect checksum
+     */
+    private static List<String> randomWhitelistNumbers(Random random, int count) {
+        List<String> numbers = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            String digits = String.format("%02d%02d%02d%03d", random.nextInt(100), 1 + random.nextInt(12),
+                    1 + random.nextInt(28) + (random.nextInt(4) == 0 ? 60 : 0), random.nextInt(1000));
+            int checksum = random.nextInt(4) > 0 ? PersonalIdentityNumberScannerTest.checksum(digits) : random.nextInt(10);
+            String separator = random.nextBoolean() ? "-" : "";
+            numbers.add("19" + digits.substring(0, 6) + separator + digits.substring(6) + checksum);
+        }
+        return numbers;
+    }
+
+    private static WhitelistFileEntries randomEntries(Random random, PersonalIdentityNumberFormats.Snapshot formats, List<String> numbers) {
+        StringBuilder text = new StringBuilder();
+        for (int i = random.nextInt(20); i > 0; i--) {
+            text.append(numbers.get(random.nextInt(numbers.size()))).append(random.nextBoolean() ? "\n" : " name\n");
+        }
+        return WhitelistFileEntries.scan(text, formats, new ScanContext());
+    }
+}
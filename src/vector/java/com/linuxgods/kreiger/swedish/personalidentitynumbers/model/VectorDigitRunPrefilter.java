@@ -0,0 +1,48 @@
+package com.linuxgods.kreiger.swedish.personalidentitynumbers.model;
+
+import com.intellij.util.text.CharArrayUtil;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Skips whole vectors of chars without digits, and only looks at single chars in vectors that have some.
+ * <p>
+ * Only loaded by {@link DigitRunPrefilter#createVector()} when the incubator module is available.
+ */
+class VectorDigitRunPrefilter extends DigitRunPrefilter {
+    private static final VectorSpecies<Short> SPECIES = ShortVector.SPECIES_PREFERRED;
+    private static final int BUFFER_SIZE = 64 * SPECIES.length();
+    private static final ThreadLocal<char[]> BUFFER = ThreadLocal.withInitial(() -> new char[BUFFER_SIZE]);
+
+    @Override
+    int nextRun(CharSequence chars, int from, int to, int runStart, int minRun) {
+        int lanes = SPECIES.length();
+        char[] buffer = BUFFER.get();
+        for (int blockStart = from; blockStart < to; blockStart += BUFFER_SIZE) {
+            int blockLength = Math.min(BUFFER_SIZE, to - blockStart);
+            CharArrayUtil.getChars(chars, buffer, blockStart, 0, blockLength);
+            int i = 0;
+            for (; i <= blockLength - lanes; i += lanes) {
+                ShortVector vector = ShortVector.fromCharArray(SPECIES, buffer, i);
+                VectorMask<Short> digits = vector.compare(VectorOperators.GE, (short) '0')
+                        .and(vector.compare(VectorOperators.LE, (short) '9'));
+                int vectorEnd = blockStart + i + lanes;
+                if (!digits.anyTrue()) {
+                    runStart = vectorEnd;
+                } else if (digits.allTrue()) {
+                    if (vectorEnd - runStart >= minRun) return runStart;
+                } else {
+                    runStart = super.nextRun(chars, blockStart + i, vectorEnd, runStart, minRun);
+                    if (runStart >= 0) return runStart;
+                    runStart = ~runStart;
+                }
+            }
+            runStart = super.nextRun(chars, blockStart + i, blockStart + blockLength, runStart, minRun);
+            if (runStart >= 0) return runStart;
+            runStart = ~runStart;
+        }
+        return ~runStart;
+    }
+}